@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.soonami;
+
+import android.content.Context;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+
+/**
+ * {@link EventListAdapter} shows the rows of an {@link EventRows} snapshot in a
+ * {@link android.widget.ListView}.
+ *
+ * The list only creates views for the rows on screen and hands scrolled-off ones back to
+ * {@link #getView} for reuse. Each view keeps a {@link ViewHolder} with its text views, and
+ * all the text was prepared when the snapshot was built, so binding a row is three
+ * {@link TextView#setText} calls.
+ */
+final class EventListAdapter extends BaseAdapter {
+
+    /**
+     * {@link ViewHolder} keeps the text views of one row, so they are looked up once per
+     * view instead of once per bind.
+     */
+    private static final class ViewHolder {
+        final TextView title;
+        final TextView date;
+        final TextView tsunamiAlert;
+
+        ViewHolder(View view) {
+            title = (TextView) view.findViewById(R.id.item_title);
+            date = (TextView) view.findViewById(R.id.item_date);
+            tsunamiAlert = (TextView) view.findViewById(R.id.item_tsunami_alert);
+        }
+    }
+
+    private final LayoutInflater inflater;
+    private EventRows rows = EventRows.EMPTY;
+
+    EventListAdapter(Context context) {
+        inflater = LayoutInflater.from(context);
+    }
+
+    /**
+     * Shows the given snapshot. Nothing happens if it is the snapshot already shown, which
+     * is what {@link EventRows#build} returns when a sync changed nothing, so the list is
+     * only notified when some row did change.
+     *
+     * A {@link android.widget.ListView} has no notification for single rows, and
+     * {@link #notifyDataSetChanged()} only binds the views on screen again, a screenful of
+     * {@link TextView#setText} calls; with stable ids the list stays on the same events.
+     */
+    void setRows(EventRows newRows) {
+        if (newRows == rows) {
+            return;
+        }
+        rows = newRows;
+        notifyDataSetChanged();
+    }
+
+    @Override
+    public int getCount() {
+        return rows.size();
+    }
+
+    /**
+     * Returns the title of the earthquake at the given position.
+     */
+    @Override
+    public Object getItem(int position) {
+        return rows.getTitle(position);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return rows.getItemId(position);
+    }
+
+    /**
+     * Item ids follow events across snapshots, so the list stays on the same earthquake
+     * when newer ones are added above it.
+     */
+    @Override
+    public boolean hasStableIds() {
+        return true;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        ViewHolder holder;
+        if (convertView == null) {
+            convertView = inflater.inflate(R.layout.event_list_item, parent, false);
+            holder = new ViewHolder(convertView);
+            convertView.setTag(holder);
+        } else {
+            holder = (ViewHolder) convertView.getTag();
+        }
+        holder.title.setText(rows.getTitle(position));
+        holder.date.setText(rows.getDate(position));
+        holder.tsunamiAlert.setText(rows.getTsunamiLabel(position));
+        return convertView;
+    }
+}
@@ -18,69 +18,269 @@ package com.example.android.soonami;
 import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.v7.app.AppCompatActivity;
-import android.text.TextUtils;
 import android.util.Log;
+import android.widget.ListView;
 import android.widget.TextView;
 
-import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
 
-import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.nio.charset.Charset;
-import java.text.SimpleDateFormat;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
 
 /**
- * Displays information about a single earthquake.
+ * Displays information about the newest earthquake, above a list of every earthquake.
  */
 public class MainActivity extends AppCompatActivity {
 
     /** Tag for the log messages */
     public static final String LOG_TAG = MainActivity.class.getSimpleName();
 
+    /** USGS query for earthquake information, without its time range */
+    private static final String USGS_QUERY_URL =
+            "https://earthquake.usgs.gov/fdsnws/event/1/query?format=geojson&minmagnitude=7";
+
     /** URL to query the USGS dataset for earthquake information */
     private static final String USGS_REQUEST_URL =
-            "https://earthquake.usgs.gov/fdsnws/event/1/query?format=geojson&starttime=2018-01-01&endtime=3000-12-01&minmagnitude=7";
+            USGS_QUERY_URL + "&starttime=2018-01-01&endtime=3000-12-01";
+
+    /** Start of the queried time range, 2018-01-01 UTC (in milliseconds) */
+    private static final long QUERY_START_TIME = 1514764800000L;
+
+    /** Number of time shards the first full download is split into */
+    private static final int FETCH_SHARD_COUNT = 4;
+
+    /** Number of shards downloaded at the same time */
+    private static final int FETCH_THREAD_COUNT = 2;
+
+    /**
+     * Whether to parse the response with {@link EventStreamParser} while it is being downloaded,
+     * instead of reading it into a String and building a {@link org.json.JSONObject} from it.
+     * This only picks the parser; {@link #USE_BACKGROUND_SYNC} picks how the feed is loaded.
+     */
+    private static final boolean USE_STREAMING_PARSER = true;
+
+    /**
+     * Whether to keep the earthquakes up to date with an {@link EventPoller}, which syncs
+     * them through the {@link EventCache} and downloads the first full copy in parallel
+     * shards, instead of loading them once with a {@link TsunamiAsyncTask}. The sync needs
+     * the ids and update times that only {@link EventStreamParser} reads, so it is skipped
+     * while {@link #USE_STREAMING_PARSER} is off.
+     */
+    private static final boolean USE_BACKGROUND_SYNC = true;
+
+    /** Total size the cached responses may take on disk; 100,000 events take about 7 MB */
+    private static final long CACHE_MAX_BYTES = 16 * 1024 * 1024;
+
+    /** How long a cached response is shown before it is revalidated with the server */
+    private static final long CACHE_MAX_AGE_MILLIS = 5 * 60 * 1000;
+
+    /** Time between two refreshes while the activity is visible */
+    private static final long POLL_INTERVAL_MILLIS = 15 * 60 * 1000;
+
+    /** Time between two refreshes while a recent earthquake was strong or raised an alert */
+    private static final long URGENT_POLL_INTERVAL_MILLIS = 2 * 60 * 1000;
+
+    /** Whether to time the loading pipeline; debug builds do, release builds pay nothing */
+    private static final boolean COLLECT_METRICS = BuildConfig.DEBUG;
+
+    /** Time between two logged snapshots of the pipeline metrics */
+    private static final long METRICS_EXPORT_MILLIS = 60 * 1000;
+
+    /** Times every stage between asking USGS for earthquakes and showing them */
+    private static final PipelineMetrics metrics =
+            COLLECT_METRICS ? new PipelineMetrics() : PipelineMetrics.DISABLED;
+
+    /** Makes every request of the app, reusing connections and read buffers */
+    private static final HttpTransport transport = new HttpTransport(metrics);
+
+    /** Logs each period of the pipeline metrics */
+    private static final PipelineMetrics.Exporter metricsLogger = new PipelineMetrics.Exporter() {
+        @Override
+        public void export(PipelineMetrics.Snapshot snapshot) {
+            Log.i(LOG_TAG, "Pipeline metrics of the last period:\n" + snapshot);
+        }
+    };
+
+    /**
+     * The periodic export of the metrics, scheduled once per process. Only used on the main
+     * thread.
+     */
+    private static ScheduledFuture<?> metricsExport;
+
+    /**
+     * Keeps the earthquakes up to date in the background. It is shared by every instance of
+     * the activity, so reopening or rotating the screen does not download the feed again.
+     * Only used on the main thread.
+     */
+    private static EventPoller poller;
+
+    /**
+     * The task loading the earthquakes when the background sync is off, so it can be
+     * cancelled with the activity
+     */
+    private TsunamiAsyncTask task;
+
+    /** The last snapshot built from the poller's results; only used on the poller's thread */
+    private EventRows polledRows;
+
+    /** Turns the poller's results into snapshots and shows them */
+    private final EventPoller.Listener pollerListener = new EventPoller.Listener() {
+        @Override
+        public void onEventsLoaded(EventStore events) {
+            // Formatting happens here on the poller's thread, so the main thread only
+            // swaps in the finished snapshot
+            long start = metrics.start();
+            final EventRows rows =
+                    EventRows.build(events, dateFormatter, tsunamiLabels, polledRows);
+            metrics.record(PipelineMetrics.Stage.FORMAT, start);
+            polledRows = rows;
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    updateUi(rows);
+                }
+            });
+        }
+
+        @Override
+        public void onLoadFailed(IOException error, long retryDelayMillis) {
+            Log.e(LOG_TAG, "Problem refreshing the earthquake results, retrying in "
+                    + retryDelayMillis + " ms", error);
+        }
+    };
+
+    /** Formats event times; created with the activity, so it follows locale changes */
+    private EventDateFormatter dateFormatter;
+
+    /** Tsunami alert labels of the event list, for an unknown alert, no alert and an alert */
+    private String[] tsunamiLabels;
+
+    /** Shows every earthquake in the event list */
+    private EventListAdapter eventListAdapter;
+
+    /** Text views showing the newest earthquake, looked up once */
+    private TextView titleTextView;
+    private TextView dateTextView;
+    private TextView tsunamiTextView;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
-        // Kick off an {@link AsyncTask} to perform the network request
-        TsunamiAsyncTask task = new TsunamiAsyncTask();
-        task.execute();
+        dateFormatter = new EventDateFormatter();
+        tsunamiLabels = new String[] {
+                getString(R.string.list_tsunami_alert, getTsunamiAlertString(-1)),
+                getString(R.string.list_tsunami_alert, getTsunamiAlertString(0)),
+                getString(R.string.list_tsunami_alert, getTsunamiAlertString(1))
+        };
+
+        titleTextView = (TextView) findViewById(R.id.title);
+        dateTextView = (TextView) findViewById(R.id.date);
+        tsunamiTextView = (TextView) findViewById(R.id.tsunami_alert);
+
+        eventListAdapter = new EventListAdapter(this);
+        ListView eventListView = (ListView) findViewById(R.id.event_list);
+        eventListView.setAdapter(eventListAdapter);
+
+        if (metrics.isEnabled() && metricsExport == null) {
+            metricsExport = metrics.scheduleExport(METRICS_EXPORT_MILLIS, metricsLogger);
+        }
+
+        if (USE_BACKGROUND_SYNC && USE_STREAMING_PARSER) {
+            // The poller is started in onStart and lives on after the activity
+            if (poller == null) {
+                poller = createPoller();
+            }
+        } else {
+            // Kick off an {@link AsyncTask} to perform the network request
+            task = new TsunamiAsyncTask();
+            task.execute();
+        }
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        // Refresh right away, which is free while the cached copy is fresh, then keep polling
+        if (poller != null) {
+            poller.setListener(pollerListener);
+            poller.start();
+        }
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        // Poll nothing while the activity cannot be seen; an incremental sync in flight still
+        // fills the cache, a first download in shards is cancelled
+        if (poller != null) {
+            poller.stop();
+            poller.setListener(null);
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // Stop the download in flight; the result would have nowhere to go
+        if (task != null) {
+            task.cancel(true);
+        }
     }
 
     /**
-     * Update the screen to display information from the given {@link Event}.
+     * Returns a new {@link EventPoller} for the USGS query, syncing through the
+     * {@link EventCache} and downloading the first full copy in parallel shards, or null if
+     * the URLs are invalid.
      */
-    private void updateUi(Event earthquake) {
+    private EventPoller createPoller() {
+        URL url;
+        List<URL> shards;
+        try {
+            url = new URL(USGS_REQUEST_URL);
+            // The newest shard is open-ended, like USGS_REQUEST_URL, so a first download
+            // that is retried long after this still reaches the newest events
+            shards = FetchScheduler.splitByTime(USGS_QUERY_URL, QUERY_START_TIME,
+                    System.currentTimeMillis(), FETCH_SHARD_COUNT);
+        } catch (MalformedURLException exception) {
+            Log.e(LOG_TAG, "Error with creating URL", exception);
+            return null;
+        }
+        EventCache cache = new EventCache(new File(getApplicationContext().getCacheDir(), "events"),
+                CACHE_MAX_BYTES);
+        EventLoader loader = new EventLoader(url, transport, cache, CACHE_MAX_AGE_MILLIS);
+        loader.setShards(new FetchScheduler(transport, FETCH_THREAD_COUNT), shards);
+        return new EventPoller(loader, Clock.SYSTEM, POLL_INTERVAL_MILLIS,
+                URGENT_POLL_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Update the screen to display the given {@link EventRows}: the newest earthquake at
+     * the top, and all of them in the event list.
+     */
+    private void updateUi(EventRows earthquakes) {
+        long start = metrics.start();
+        eventListAdapter.setRows(earthquakes);
+        if (earthquakes.size() == 0) {
+            metrics.record(PipelineMetrics.Stage.UI_BIND, start);
+            return;
+        }
+
         // Display the earthquake title in the UI
-        TextView titleTextView = (TextView) findViewById(R.id.title);
-        titleTextView.setText(earthquake.title);
+        titleTextView.setText(earthquakes.getTitle(0));
 
         // Display the earthquake date in the UI
-        TextView dateTextView = (TextView) findViewById(R.id.date);
-        dateTextView.setText(getDateString(earthquake.time));
+        dateTextView.setText(earthquakes.getDate(0));
 
         // Display whether or not there was a tsunami alert in the UI
-        TextView tsunamiTextView = (TextView) findViewById(R.id.tsunami_alert);
-        tsunamiTextView.setText(getTsunamiAlertString(earthquake.tsunamiAlert));
-    }
-
-    /**
-     * Returns a formatted date and time string for when the earthquake happened.
-     */
-    private String getDateString(long timeInMilliseconds) {
-        SimpleDateFormat formatter = new SimpleDateFormat("EEE, d MMM yyyy 'at' HH:mm:ss z");
-        return formatter.format(timeInMilliseconds);
+        tsunamiTextView.setText(getTsunamiAlertString(earthquakes.getTsunamiAlert(0)));
+        metrics.record(PipelineMetrics.Stage.UI_BIND, start);
     }
 
     /**
@@ -99,15 +299,29 @@ public class MainActivity extends AppCompatActivity {
 
     /**
      * {@link AsyncTask} to perform the network request on a background thread, and then
-     * update the UI with the first earthquake in the response.
+     * update the UI with the earthquakes in the response.
      */
-    private class TsunamiAsyncTask extends AsyncTask<URL, Void, Event> {
+    private class TsunamiAsyncTask extends AsyncTask<URL, Void, EventRows> {
+
+        /** The last snapshot built, whose text is reused for events that did not change */
+        private EventRows rows;
 
         @Override
-        protected Event doInBackground(URL... urls) {   //the "..." syntax is for a variable length list of arguments (urls holds more than one URL). This is typically used to allow users to pass in more than one URL to be fetched in the background.
+        protected EventRows doInBackground(URL... urls) {   //the "..." syntax is for a variable length list of arguments (urls holds more than one URL). This is typically used to allow users to pass in more than one URL to be fetched in the background.
             // Create URL object. 把USGS_REQUEST_URL的網址轉成URL物件
             URL url = createUrl(USGS_REQUEST_URL);
 
+            // Parse every earthquake straight from the response stream
+            if (USE_STREAMING_PARSER) {
+                try {
+                    EventStore events = fetchEvents(url);
+                    return events == null ? null : buildRows(events);
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Problem streaming the earthquake JSON results", e);
+                    return null;
+                }
+            }
+
             // Perform HTTP request to the URL and receive a JSON response back
             String jsonResponse = "";     //Initialize jsonResponse to an empty String.
             try {
@@ -118,22 +332,27 @@ public class MainActivity extends AppCompatActivity {
 
             // Extract relevant fields from the JSON response and create an {@link Event} object
             Event earthquake = extractFeatureFromJson(jsonResponse);
+            if (earthquake == null) {
+                return null;
+            }
 
-            // Return the {@link Event} object as the result fo the {@link TsunamiAsyncTask}
-            return earthquake;
+            // Return the earthquake, ready for display, as the result of the {@link TsunamiAsyncTask}
+            EventStore events = new EventStore();
+            events.add(earthquake);
+            return buildRows(events);
         }
 
         /**
-         * Update the screen with the given earthquake (which was the result of the
+         * Update the screen with the given earthquakes (which were the result of the
          * {@link TsunamiAsyncTask}).
          */
         @Override
-        protected void onPostExecute(Event earthquake) {
-            if (earthquake == null) {
-                return;             //If there is a null earthquake, then we won't update the UI.
+        protected void onPostExecute(EventRows earthquakes) {
+            if (earthquakes == null) {
+                return;             //If there are no earthquakes, then we won't update the UI.
             }
 
-            updateUi(earthquake);
+            updateUi(earthquakes);
         }
 
         /**
@@ -165,27 +384,20 @@ public class MainActivity extends AppCompatActivity {
                 return jsonResponse;        //若網址失效，就會回傳空白文字。If the url is null, then simply return jsonResponse that contains an empty String.
             }
 
-            HttpURLConnection urlConnection = null;   //將urlConnection初始化為null。HttpURLConnection這個類別是網路數據的傳送接收器，it is used to get our Jason data return the server's response via inputStream.
-            InputStream inputStream = null;           //將inputStream初始化為null。 An inputStream allows you to retrieve information one chunk of data at a time.
+            HttpTransport.Response response = null;   //將response初始化為null。The response holds the status code and the inputStream (body) that the server sent back.
 
             /**
              * 嘗試(try)以下可能會出現exception的動作
              * 建立連線並在確定收到數據要求成功的200狀態碼時要讀取和解析收到的數據。
              */
             try {
-                urlConnection = (HttpURLConnection) url.openConnection();   //透過url.openConnection()打開網路連接
-                urlConnection.setRequestMethod("GET");                      //指定要求數據的方式為GET
-                urlConnection.setReadTimeout(10000 /* milliseconds */);
-                urlConnection.setConnectTimeout(15000 /* milliseconds */);
-                urlConnection.connect();                                    //執行連接。與伺服器建立連接。
+                response = transport.get(url, null, null);   //透過transport以GET方式要求數據，並請伺服器以gzip壓縮回應
                 //確保收到數據要求成功的200狀態碼時要讀取和解析收到的數據。
-                //After the connection is established, check the connection code (status) by calling getResponseCode().
-                //If the ResponseCode is 200, we proceed to read from the inputStream and extract the jasonResponse.
-                if (urlConnection.getResponseCode() == 200) {                   //If the ResponseCode is 200,
-                    inputStream = urlConnection.getInputStream();               //get the inputStream which contains the results. Receiving the response from the server.
-                    jsonResponse = readFromStream(inputStream);                 //Making sense of the response from the server. The readFromStream helper method reads the data that comes from the inputStream.
+                //If the ResponseCode is 200, we proceed to read from the body and extract the jasonResponse.
+                if (response.code == 200) {                                     //If the ResponseCode is 200,
+                    jsonResponse = readFromStream(response.body);               //Making sense of the response from the server. The readFromStream helper method reads the data that comes from the body.
                 } else {                                                        //If the ResponseCode isn't 200, log the error response code.
-                    Log.e(LOG_TAG, "Error response code: "+ urlConnection.getResponseCode());
+                    Log.e(LOG_TAG, "Error response code: "+ response.code);
                 }
 
              /**
@@ -193,86 +405,90 @@ public class MainActivity extends AppCompatActivity {
              */
             } catch (IOException e) {
                 Log.e(LOG_TAG, "Problem receiving the earthquake Jason results", e);
-                }
 
              /**
               * 不論有沒有出現exception都會執行以下動作
-              * 中斷並關閉連線以釋放系資源
+              * 關閉回應。連線不會被中斷，而是留給下一個數據要求重複使用
              */
-                if (urlConnection != null) {     //若連線還未中斷
-                    urlConnection.disconnect();  //就中斷連線
-                }
-                if (inputStream != null) {   //若inputStream還有資料
-                    // function must handle java.io.IOException here
-                    inputStream.close();     //就關閉inputStream
+            } finally {
+                if (response != null) {
+                    response.close();     //Closing the response (instead of disconnecting) keeps the connection alive for the next request.
                 }
+            }
             return jsonResponse;   //If the response ode is not 200 (meaning if there is an error code), we do nothing and return the empty String (called jsonResponse).
                                    //這代表makeHttpRequest方法可能會回傳空白文字(jsonResponse)，那就要確保使用到jsonResponse的extractFeatureFromJson方法會去處理空白文字。
         }
 
         /**
-         * Convert the {@link InputStream} into a String which contains the whole JSON response from the server.
-         *
-         * InputStream就像傳輸線裡被傳輸的原始數據；BufferedReader就像翻譯機一樣將原始數據轉譯成人類可解讀的字符。
-         * 雖然inputStreamReader和BufferedReader都是翻譯機，但inputStreamReader像撥接速度一次只轉譯一個字，BufferedReader像光纖速度一次轉譯一批的字，
-         * 所以還須將inputStreamReader封裝到BufferedReader裡面做快速轉譯
+         * Make an HTTP request to the given URL and return every earthquake in the response,
+         * parsed with {@link EventStreamParser} as the bytes arrive, or null if the URL is
+         * invalid or the server answers with an error.
          */
-        private String readFromStream(InputStream inputStream) throws IOException {   //In this method we have an inputStream and we want to return a string containing the contents of that stream.
-            StringBuilder output = new StringBuilder();  // Create a new Stringbuilder named "output" and start appending to it all the lines of text available in the BufferedReader.
-            if (inputStream != null) {    //If the inputStream is not null (meaning if the inputStream contains anything), then do the following steps:
-
-                // Create and use inputStreamReader to handle translation process from raw data to human readable characters.
-                // "inputStream" is passed in as a parameter to the InputStreamReader via the constructor to begin reading data from the InputStream.
-                // We also pass in the character set (Charset). Charset specifies how to translate the inputStream's raw data into readable characters one byte at a time,
-                // and it knows how to decode each byte into a specific human readable character.
-                // UTF-8 is the Unicode character encoding used for almost any texts found on the web.
-                InputStreamReader inputStreamReader = new InputStreamReader(inputStream, Charset.forName("UTF-8"));
-
-                // The inputStreamReader can only read a single character at a time which consumes tremendous time.
-                // This can be avoided by wrapping inputStreamReader in the BufferedReader (named "reader").
-                // The BufferedReader can accept a request for a character, and will read and save a larger chunk of data around it,
-                // so it can read ahead of time instead of having to go back to the inputStreamReader.
-                BufferedReader reader = new BufferedReader(inputStreamReader);
-                String line = reader.readLine();  // Tell the BufferedReader (named "reader") to start reading lines. (Ask the BufferedReader for a line of text)
-                while (line != null) {    //While the line isn't null(meaning if the line contains anything),
-                    output.append(line);  //we will append that line to the StringBuilder (named "output"),
-                    line = reader.readLine();  // and then read another line.
+        private EventStore fetchEvents(URL url) throws IOException {
+            if (url == null) {
+                return null;
+            }
+
+            HttpTransport.Response response = transport.get(url, null, null);
+            try {
+                if (response.code != 200) {
+                    Log.e(LOG_TAG, "Error response code: " + response.code);
+                    return null;
+                }
+                EventStore events = new EventStore();
+                long start = metrics.start();
+                byte[] buffer = transport.acquireBuffer();
+                try {
+                    int count = new EventStreamParser(response.body, buffer).readInto(events);
+                    metrics.record(PipelineMetrics.Stage.PARSE, start);
+                    metrics.addEventsParsed(count);
+                } finally {
+                    transport.releaseBuffer(buffer);
                 }
+                return events;
+            } finally {
+                response.close();
+            }
+        }
+
+        /**
+         * Return the display text of every earthquake in the given {@link EventStore},
+         * formatting only the ones that changed since the last snapshot. This runs on the
+         * background thread, so the main thread only swaps in the finished snapshot.
+         */
+        private EventRows buildRows(EventStore events) {
+            long start = metrics.start();
+            rows = EventRows.build(events, dateFormatter, tsunamiLabels, rows);
+            metrics.record(PipelineMetrics.Stage.FORMAT, start);
+            return rows;
+        }
+
+        /**
+         * Convert the {@link InputStream} into a String which contains the whole JSON response from the server,
+         * reading it through a buffer borrowed from the transport.
+         */
+        private String readFromStream(InputStream inputStream) throws IOException {
+            long start = metrics.start();
+            byte[] buffer = transport.acquireBuffer();
+            try {
+                return QueryUtils.readFromStream(inputStream, buffer);
+            } finally {
+                transport.releaseBuffer(buffer);
+                metrics.record(PipelineMetrics.Stage.READ_FROM_STREAM, start);
             }
-            return output.toString();  // Eventually the BufferedReader will run out of lines and we will use the Convert the toString method
-                                       // to return result (final output) of the BufferedReader into a String and then parse the Jason.
-                                       // 由於StringBuilder (named "output")是屬於可變的(mutable)字符，所以必須透過toString方法轉換成不可變(immutable)的字符，然後提交(return)出來
         }
 
         /**
          * Return an {@link Event} object by parsing out information about the first earthquake from the input earthquakeJSON string.
-         * It the return value of the makeHttpRequest method can be an empty String,
-         * then make sure the method (extractFeatureFromJson) that takes the jasonResponse as input is handling that empty String
+         * Returns null if the String is empty or cannot be parsed.
          */
         private Event extractFeatureFromJson(String earthquakeJSON) {
-            // Before proceeding from extracting information from the jsonResponse, we should check if the input parameter is either the empty String or null by calling TextUtils.isEmpty and passing in the String.
-            // Check if the jsonResponse String (input parameter) is empty (null). If so, then return early.
-            if (TextUtils.isEmpty(earthquakeJSON)){    // If this String is empty, then this expression will be true and we will return early from the method.
-                return null;            //We return null because there is no valid event object from the jsonResponse.
-            }
+            long start = metrics.start();
             try {
-                JSONObject baseJsonResponse = new JSONObject(earthquakeJSON);
-                JSONArray featureArray = baseJsonResponse.getJSONArray("features");
-
-                // If there are results in the features array
-                if (featureArray.length() > 0) {
-                    // Extract out the first feature (which is an earthquake)
-                    JSONObject firstFeature = featureArray.getJSONObject(0);
-                    JSONObject properties = firstFeature.getJSONObject("properties");
-
-                    // Extract out the title, time, and tsunami values
-                    String title = properties.getString("title");
-                    long time = properties.getLong("time");
-                    int tsunamiAlert = properties.getInt("tsunami");
-
-                    // Create a new {@link Event} object
-                    return new Event(title, time, tsunamiAlert);
-                }
+                Event earthquake = QueryUtils.extractFeatureFromJson(earthquakeJSON);
+                metrics.record(PipelineMetrics.Stage.PARSE, start);
+                metrics.addEventsParsed(earthquake == null ? 0 : 1);
+                return earthquake;
             } catch (JSONException e) {
                 Log.e(LOG_TAG, "Problem parsing the earthquake JSON results", e);
             }
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.soonami;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Compares building a {@link SimpleDateFormat} for every time, as
+ * {@link QueryUtils#getDateString(long)} does, with {@link EventDateFormatter}.
+ *
+ * Both sides get the locale and time zone of the run explicitly, so the JVM defaults are left
+ * alone. That the two give the same text is checked by EventDateFormatterTest.
+ */
+@State(Scope.Thread)
+public class DateFormatBenchmark {
+
+    private static final String PATTERN = "EEE, d MMM yyyy 'at' HH:mm:ss z";
+
+    /** Zones with ordinary, half-hour and quarter-hour offsets and daylight saving rules */
+    @Param({"America/Los_Angeles", "Australia/Lord_Howe", "Asia/Kathmandu"})
+    public String zone;
+
+    /** Locales with different day and month names, and with their own digits */
+    @Param({"en-US", "de-DE", "ar-EG"})
+    public String locale;
+
+    private long time = 1537621419410L;
+    private Locale runLocale;
+    private TimeZone runZone;
+    private EventDateFormatter formatter;
+    private StringBuilder text;
+
+    @Setup
+    public void setUp() {
+        runLocale = Locale.forLanguageTag(locale);
+        runZone = TimeZone.getTimeZone(zone);
+        formatter = new EventDateFormatter(runLocale, runZone);
+        text = new StringBuilder(64);
+    }
+
+    /** A new {@link SimpleDateFormat} for every time, as the app used to do */
+    @Benchmark
+    public String getDateString() {
+        time += 1000;
+        SimpleDateFormat dateFormat = new SimpleDateFormat(PATTERN, runLocale);
+        dateFormat.setTimeZone(runZone);
+        return dateFormat.format(new Date(time));
+    }
+
+    /** One shared {@link EventDateFormatter}, writing into a reused builder */
+    @Benchmark
+    public StringBuilder eventDateFormatter() {
+        time += 1000;
+        text.setLength(0);
+        formatter.format(time, text);
+        return text;
+    }
+
+    /** One shared {@link EventDateFormatter}, returning a new String */
+    @Benchmark
+    public String eventDateFormatterString() {
+        time += 1000;
+        return formatter.format(time);
+    }
+}
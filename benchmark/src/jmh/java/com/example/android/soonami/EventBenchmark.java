@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.soonami;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks the per-event work that is done for every earthquake shown on screen.
+ */
+@State(Scope.Thread)
+public class EventBenchmark {
+
+    private long time = 1537621419410L;
+
+    /** Formatting the time of an earthquake for display */
+    @Benchmark
+    public String getDateString() {
+        time += 1000;
+        return QueryUtils.getDateString(time);
+    }
+
+    /** Creating the {@link Event} that holds one earthquake */
+    @Benchmark
+    public Event newEvent() {
+        time += 1000;
+        return new Event("M 7.5 - 100km SSW of Kermadec Islands, New Zealand", time, 1);
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.soonami;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+/**
+ * Compares {@link EventIndex} queries with a linear scan over every row of an
+ * {@link EventStore}, on synthetic feeds of different sizes.
+ *
+ * The feeds cover twenty years, with a third of the earthquakes clustered around Japan, as
+ * real seismicity is, and the rest spread over the globe. Before measuring, the setup checks
+ * that both sides find the same earthquakes.
+ */
+@State(Scope.Thread)
+public class EventIndexBenchmark {
+
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+    private static final long NEWEST_TIME = 1537621419410L;
+    private static final long HISTORY_MILLIS = 20 * 365 * DAY_MILLIS;
+
+    /** Off the coast of Sendai, Japan */
+    private static final double LATITUDE = 38.3;
+    private static final double LONGITUDE = 142.4;
+    private static final double RADIUS_KM = 500;
+    private static final int NEAREST_COUNT = 10;
+
+    @Param({"10000", "100000", "1000000"})
+    public int eventCount;
+
+    private EventStore events;
+    private EventIndex index;
+    private int[] out;
+    private final int[] nearestRows = new int[NEAREST_COUNT];
+
+    @Setup
+    public void setUp() {
+        events = generate(eventCount, new Random(42));
+        index = new EventIndex(events);
+        out = new int[eventCount];
+
+        long start = NEWEST_TIME - 30 * DAY_MILLIS;
+        if (recentTsunamisNearby() != linearWithinDistance(start, Long.MAX_VALUE, true)
+                || tsunamisNearby() != linearWithinDistance(Long.MIN_VALUE, Long.MAX_VALUE, true)) {
+            throw new IllegalStateException("Index and linear scan found different earthquakes");
+        }
+        int[] indexed = new int[NEAREST_COUNT];
+        int count = index.nearest(LATITUDE, LONGITUDE, Long.MIN_VALUE, Long.MAX_VALUE, false,
+                indexed);
+        int[] linear = new int[NEAREST_COUNT];
+        linearNearest(linear);
+        for (int i = 0; i < count; i++) {
+            if (distance(indexed[i]) != distance(linear[i])) {
+                throw new IllegalStateException("Index and linear scan found different neighbors");
+            }
+        }
+    }
+
+    /** Tsunami-flagged earthquakes within 500 km in the last 30 days */
+    @Benchmark
+    public int recentTsunamisNearby() {
+        return index.withinDistance(LATITUDE, LONGITUDE, RADIUS_KM,
+                NEWEST_TIME - 30 * DAY_MILLIS, Long.MAX_VALUE, true, out);
+    }
+
+    @Benchmark
+    public int recentTsunamisNearbyLinear() {
+        return linearWithinDistance(NEWEST_TIME - 30 * DAY_MILLIS, Long.MAX_VALUE, true);
+    }
+
+    /** Tsunami-flagged earthquakes within 500 km over the whole history */
+    @Benchmark
+    public int tsunamisNearby() {
+        return index.withinDistance(LATITUDE, LONGITUDE, RADIUS_KM,
+                Long.MIN_VALUE, Long.MAX_VALUE, true, out);
+    }
+
+    @Benchmark
+    public int tsunamisNearbyLinear() {
+        return linearWithinDistance(Long.MIN_VALUE, Long.MAX_VALUE, true);
+    }
+
+    /** The ten earthquakes nearest to the point over the whole history */
+    @Benchmark
+    public int nearest() {
+        return index.nearest(LATITUDE, LONGITUDE, Long.MIN_VALUE, Long.MAX_VALUE, false,
+                nearestRows);
+    }
+
+    @Benchmark
+    public int nearestLinear() {
+        return linearNearest(nearestRows);
+    }
+
+    /** Building the index, which has to be redone after the store changes */
+    @Benchmark
+    public EventIndex buildIndex() {
+        return new EventIndex(events);
+    }
+
+    private int linearWithinDistance(long startTime, long endTime, boolean tsunamiOnly) {
+        int count = 0;
+        for (int row = 0; row < events.size(); row++) {
+            long time = events.getTime(row);
+            if (time >= startTime && time < endTime
+                    && (!tsunamiOnly || events.getTsunamiAlert(row) == 1)
+                    && distance(row) <= RADIUS_KM) {
+                out[count++] = row;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Keeps the nearest rows seen so far in {@code nearest}, sorted by distance.
+     */
+    private int linearNearest(int[] nearest) {
+        int k = nearest.length;
+        double[] distances = new double[k];
+        int count = 0;
+        for (int row = 0; row < events.size(); row++) {
+            double distance = distance(row);
+            if (count == k && distance >= distances[k - 1]) {
+                continue;
+            }
+            int i = count < k ? count++ : k - 1;
+            for (; i > 0 && distances[i - 1] > distance; i--) {
+                distances[i] = distances[i - 1];
+                nearest[i] = nearest[i - 1];
+            }
+            distances[i] = distance;
+            nearest[i] = row;
+        }
+        return count;
+    }
+
+    private double distance(int row) {
+        return EventIndex.distanceKm(LATITUDE, LONGITUDE,
+                events.getLatitude(row), events.getLongitude(row));
+    }
+
+    private static EventStore generate(int count, Random random) {
+        EventStore events = new EventStore();
+        long step = HISTORY_MILLIS / count;
+        for (int i = 0; i < count; i++) {
+            float latitude;
+            float longitude;
+            if (i % 3 == 0) {
+                latitude = (float) (36 + random.nextGaussian() * 4);
+                longitude = (float) (140 + random.nextGaussian() * 4);
+            } else {
+                // Uniform over the sphere rather than over the latitudes
+                latitude = (float) Math.toDegrees(Math.asin(2 * random.nextDouble() - 1));
+                longitude = (float) (random.nextDouble() * 360 - 180);
+            }
+            long time = NEWEST_TIME - i * step;
+            events.put("us" + i, "M 7.0 - synthetic", time, time,
+                    random.nextInt(10) == 0 ? 1 : 0, 7f, latitude, longitude, 10f);
+        }
+        return events;
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.soonami;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * USGS GeoJSON payloads for the benchmarks.
+ *
+ * A recorded response saved as {@code src/jmh/resources/usgs-<size>.json} (for example
+ * {@code usgs-1MB.json}) is used when it exists. Otherwise a payload of about the requested
+ * size is generated by {@link UsgsFixtures}, from a fixed seed so every run sees the same bytes.
+ */
+final class Payloads {
+
+    private Payloads() {
+    }
+
+    /**
+     * Returns the payload for the given size, such as "10KB", "1MB" or "20MB".
+     */
+    static byte[] load(String size) throws IOException {
+        InputStream recorded = Payloads.class.getResourceAsStream("/usgs-" + size + ".json");
+        if (recorded != null) {
+            try {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                for (int count; (count = recorded.read(buffer)) != -1; ) {
+                    out.write(buffer, 0, count);
+                }
+                return out.toByteArray();
+            } finally {
+                recorded.close();
+            }
+        }
+        return UsgsFixtures.responseOfSize(parseSize(size), 42);
+    }
+
+    private static int parseSize(String size) {
+        if (size.endsWith("MB")) {
+            return Integer.parseInt(size.substring(0, size.length() - 2)) * 1024 * 1024;
+        } else if (size.endsWith("KB")) {
+            return Integer.parseInt(size.substring(0, size.length() - 2)) * 1024;
+        }
+        return Integer.parseInt(size);
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.soonami;
+
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+/**
+ * Benchmarks the fetch and parse stages of the pipeline on USGS payloads of different sizes.
+ * The network is left out: each operation reads the payload from memory, so the numbers show
+ * what reading and parsing cost on their own.
+ */
+@State(Scope.Thread)
+public class PipelineBenchmark {
+
+    @Param({"10KB", "1MB", "20MB"})
+    public String payloadSize;
+
+    private byte[] payload;
+    private String json;
+    private byte[] buffer;
+
+    @Setup
+    public void setUp() throws IOException {
+        payload = Payloads.load(payloadSize);
+        json = new String(payload, "UTF-8");
+        buffer = new byte[HttpTransport.BUFFER_SIZE];
+    }
+
+    /** The String path: the whole response is read into one String */
+    @Benchmark
+    public String readFromStream() throws IOException {
+        return QueryUtils.readFromStream(new ByteArrayInputStream(payload), buffer);
+    }
+
+    /** The String path: the whole response is turned into a JSONObject tree */
+    @Benchmark
+    public Event extractFeatureFromJson() throws JSONException {
+        return QueryUtils.extractFeatureFromJson(json);
+    }
+
+    /** Both String path stages together, as the app runs them */
+    @Benchmark
+    public Event readAndExtract() throws IOException, JSONException {
+        return QueryUtils.extractFeatureFromJson(
+                QueryUtils.readFromStream(new ByteArrayInputStream(payload), buffer));
+    }
+
+    /** The streaming path, stopping after the first feature */
+    @Benchmark
+    public Event streamFirstEvent() throws IOException {
+        return new EventStreamParser(new ByteArrayInputStream(payload), buffer).next();
+    }
+
+    /** The streaming path, reading every feature into an {@link EventStore} */
+    @Benchmark
+    public EventStore streamAllEvents() throws IOException {
+        EventStore events = new EventStore();
+        new EventStreamParser(new ByteArrayInputStream(payload), buffer).readInto(events);
+        return events;
+    }
+}
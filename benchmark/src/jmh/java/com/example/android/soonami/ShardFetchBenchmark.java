@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.soonami;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the first full download of a query as parallel time shards with the same query
+ * downloaded in one piece, against a local server that behaves like a distant one: it waits
+ * before answering each request and sends every response at a limited rate.
+ *
+ * Both sides parse what they download into an {@link EventStore}. The setup checks that the
+ * shards add up to exactly the events of the single download.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ShardFetchBenchmark {
+
+    private static final String QUERY = "/fdsnws/event/1/query?format=geojson";
+
+    /** Bytes sent at a time by the server */
+    private static final int CHUNK_SIZE = 16 * 1024;
+
+    @Param({"2", "4", "8"})
+    public int shardCount;
+
+    @Param({"5000"})
+    public int eventCount;
+
+    /** Time the server takes before it answers a request */
+    @Param({"100"})
+    public int latencyMillis;
+
+    /** Rate at which the server sends each response */
+    @Param({"4194304"})
+    public int bytesPerSecond;
+
+    private String[] features;
+    private long[] times;
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private HttpTransport transport;
+    private FetchScheduler scheduler;
+    private URL url;
+    private List<URL> shards;
+
+    @Setup
+    public void setUp() throws IOException {
+        features = new String[eventCount];
+        times = new long[eventCount];
+        Random random = new Random(42);
+        long time = UsgsFixtures.NEWEST_TIME;
+        for (int i = 0; i < eventCount; i++) {
+            StringBuilder feature = new StringBuilder();
+            UsgsFixtures.appendFeature(feature, "us" + (1000 + i) + "abcd", time, random);
+            features[i] = feature.toString();
+            times[i] = time;
+            time -= 60000L + random.nextInt(3600000);
+        }
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    serve(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        serverExecutor = Executors.newCachedThreadPool();
+        server.setExecutor(serverExecutor);
+        server.start();
+
+        transport = new HttpTransport();
+        scheduler = new FetchScheduler(transport, shardCount);
+        url = new URL("http", "127.0.0.1", server.getAddress().getPort(), QUERY);
+        shards = FetchScheduler.splitByTime(url.toString(), times[eventCount - 1],
+                times[0] + 1, shardCount);
+
+        EventStore serial = serial();
+        EventStore sharded = sharded();
+        if (serial.size() != eventCount || sharded.size() != eventCount) {
+            throw new IllegalStateException("Downloaded " + serial.size() + " events in one"
+                    + " piece and " + sharded.size() + " in shards, not " + eventCount);
+        }
+        for (int row = 0; row < eventCount; row++) {
+            if (sharded.indexOf(serial.getId(row)) < 0) {
+                throw new IllegalStateException("Shards are missing " + serial.getId(row));
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        scheduler.shutdown();
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    /** The whole query in one request, as {@link EventLoader#refresh()} downloads it */
+    @Benchmark
+    public EventStore serial() throws IOException {
+        HttpTransport.Response response = transport.get(url, null, null);
+        try {
+            EventStore events = new EventStore();
+            EventLoader.readEvents(transport, response, events);
+            return events;
+        } finally {
+            response.close();
+        }
+    }
+
+    /** The same query as time shards downloaded in parallel */
+    @Benchmark
+    public EventStore sharded() throws IOException {
+        return scheduler.fetchAll(shards);
+    }
+
+    /**
+     * Answers a query with the features between its starttime and endtime, both inclusive
+     * as USGS has them, after the latency and at the rate of a distant server.
+     */
+    private void serve(HttpExchange exchange) throws IOException {
+        String query = exchange.getRequestURI().getQuery();
+        long start = parameter(query, "starttime", Long.MIN_VALUE);
+        long end = parameter(query, "endtime", Long.MAX_VALUE);
+        StringBuilder json = new StringBuilder("{\"type\":\"FeatureCollection\",\"features\":[");
+        boolean first = true;
+        for (int i = 0; i < eventCount; i++) {
+            if (times[i] >= start && times[i] <= end) {
+                json.append(first ? "" : ",").append(features[i]);
+                first = false;
+            }
+        }
+        byte[] body = json.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+
+        try {
+            Thread.sleep(latencyMillis);
+            exchange.sendResponseHeaders(200, body.length);
+            OutputStream out = exchange.getResponseBody();
+            long startNanos = System.nanoTime();
+            for (int offset = 0; offset < body.length; offset += CHUNK_SIZE) {
+                out.write(body, offset, Math.min(CHUNK_SIZE, body.length - offset));
+                out.flush();
+                long dueNanos = startNanos + (offset + CHUNK_SIZE) * 1000000000L / bytesPerSecond;
+                long waitNanos = dueNanos - System.nanoTime();
+                if (waitNanos > 0) {
+                    TimeUnit.NANOSECONDS.sleep(waitNanos);
+                }
+            }
+            out.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static long parameter(String query, String name, long missing) {
+        for (String parameter : query.split("&")) {
+            if (parameter.startsWith(name + "=")) {
+                SimpleDateFormat format =
+                        new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS", Locale.US);
+                format.setTimeZone(TimeZone.getTimeZone("UTC"));
+                try {
+                    return format.parse(parameter.substring(name.length() + 1)).getTime();
+                } catch (ParseException e) {
+                    throw new IllegalArgumentException(parameter, e);
+                }
+            }
+        }
+        return missing;
+    }
+}
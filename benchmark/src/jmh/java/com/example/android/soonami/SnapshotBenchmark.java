@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.soonami;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compares loading earthquakes from a binary snapshot with parsing the USGS GeoJSON they came
+ * from, and measures writing the snapshot.
+ *
+ * The setup prints the size of the JSON and of the snapshot, plain and gzipped, and checks
+ * that the snapshot loads back into exactly the parsed events.
+ */
+@State(Scope.Thread)
+public class SnapshotBenchmark {
+
+    private static final long MONTH_MILLIS = 30 * 24 * 60 * 60 * 1000L;
+
+    @Param({"100000"})
+    public int eventCount;
+
+    private byte[] json;
+    private byte[] buffer;
+    private EventStore events;
+    private File snapshotFile;
+    private final ByteArrayOutputStream snapshotBytes = new ByteArrayOutputStream();
+
+    @Setup
+    public void setUp() throws IOException {
+        json = UsgsFixtures.response(eventCount, 42);
+        buffer = new byte[HttpTransport.BUFFER_SIZE];
+        events = loadJson();
+
+        snapshotFile = File.createTempFile("events", ".snapshot");
+        EventSnapshotWriter writer = new EventSnapshotWriter(new FileOutputStream(snapshotFile));
+        try {
+            writer.addAll(events);
+        } finally {
+            writer.close();
+        }
+
+        EventStore loaded = loadSnapshot();
+        if (loaded.size() != events.size()) {
+            throw new IllegalStateException("Snapshot has " + loaded.size() + " events");
+        }
+        for (int row = 0; row < events.size(); row++) {
+            if (!same(events, loaded, row)) {
+                throw new IllegalStateException("Snapshot differs at row " + row);
+            }
+        }
+        System.out.printf("%d events: JSON %d bytes (%d gzipped), snapshot %d bytes"
+                        + " (%d gzipped)%n", events.size(), json.length, gzippedSize(json),
+                snapshotFile.length(), gzippedSize(writeSnapshot()));
+    }
+
+    @TearDown
+    public void tearDown() {
+        snapshotFile.delete();
+    }
+
+    /** Parsing the USGS response, which is what every startup did without a snapshot */
+    @Benchmark
+    public EventStore loadJson() throws IOException {
+        EventStore store = new EventStore();
+        new EventStreamParser(new ByteArrayInputStream(json), buffer).readInto(store);
+        return store;
+    }
+
+    /** Mapping the snapshot file and loading every record into a store */
+    @Benchmark
+    public EventStore loadSnapshot() throws IOException {
+        EventStore store = new EventStore();
+        EventSnapshotReader.open(snapshotFile).readInto(store);
+        return store;
+    }
+
+    /** Counting last month's tsunami alerts in the mapped file, without loading anything */
+    @Benchmark
+    public int scanSnapshot() throws IOException {
+        EventSnapshotReader reader = EventSnapshotReader.open(snapshotFile);
+        long monthStart = UsgsFixtures.NEWEST_TIME - MONTH_MILLIS;
+        int count = 0;
+        while (reader.next()) {
+            if (reader.getTsunamiAlert() == 1 && reader.getTime() >= monthStart) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /** Writing the snapshot of every event into memory */
+    @Benchmark
+    public byte[] writeSnapshot() throws IOException {
+        snapshotBytes.reset();
+        EventSnapshotWriter writer = new EventSnapshotWriter(snapshotBytes);
+        writer.addAll(events);
+        writer.finish();
+        return snapshotBytes.toByteArray();
+    }
+
+    private static boolean same(EventStore a, EventStore b, int row) {
+        return equal(a.getId(row), b.getId(row))
+                && a.getTitle(row).equals(b.getTitle(row))
+                && a.getTime(row) == b.getTime(row)
+                && a.getUpdated(row) == b.getUpdated(row)
+                && a.getTsunamiAlert(row) == b.getTsunamiAlert(row)
+                && Float.compare(a.getMagnitude(row), b.getMagnitude(row)) == 0
+                && Float.compare(a.getLatitude(row), b.getLatitude(row)) == 0
+                && Float.compare(a.getLongitude(row), b.getLongitude(row)) == 0
+                && Float.compare(a.getDepth(row), b.getDepth(row)) == 0;
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static int gzippedSize(byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(out);
+        gzip.write(bytes);
+        gzip.close();
+        return out.size();
+    }
+}
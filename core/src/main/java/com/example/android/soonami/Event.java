@@ -18,8 +18,9 @@ package com.example.android.soonami;
 /**
  * {@Event} represents an earthquake event. It holds the details
  * of that event such as title (which contains magnitude and location
- * of the earthquake), as well as time, and whether or not a tsunami
- * alert was issued during the earthquake.
+ * of the earthquake), as well as time, whether or not a tsunami
+ * alert was issued during the earthquake, its magnitude, and where
+ * it happened.
  */
 public class Event {
 
@@ -32,16 +33,48 @@ public class Event {
     /** Whether or not a tsunami alert was issued (1 if it was issued, 0 if no alert was issued) */
     public final int tsunamiAlert;
 
+    /** Magnitude of the earthquake, or NaN if unknown */
+    public final float magnitude;
+
+    /** Latitude of the epicenter in degrees, or NaN if unknown */
+    public final float latitude;
+
+    /** Longitude of the epicenter in degrees, or NaN if unknown */
+    public final float longitude;
+
+    /** Depth of the hypocenter in kilometers, or NaN if unknown */
+    public final float depth;
+
     /**
-     * Constructs a new {@link Event}.
+     * Constructs a new {@link Event} whose magnitude and location are unknown.
      *
      * @param eventTitle is the title of the earthquake event
      * @param eventTime is the time the earthquake happened
      * @param eventTsunamiAlert is whether or not a tsunami alert was issued
      */
     public Event(String eventTitle, long eventTime, int eventTsunamiAlert) {
+        this(eventTitle, eventTime, eventTsunamiAlert, Float.NaN, Float.NaN, Float.NaN, Float.NaN);
+    }
+
+    /**
+     * Constructs a new {@link Event}.
+     *
+     * @param eventTitle is the title of the earthquake event
+     * @param eventTime is the time the earthquake happened
+     * @param eventTsunamiAlert is whether or not a tsunami alert was issued
+     * @param eventMagnitude is the magnitude of the earthquake
+     * @param eventLatitude is the latitude of the epicenter
+     * @param eventLongitude is the longitude of the epicenter
+     * @param eventDepth is the depth of the hypocenter in kilometers
+     */
+    public Event(String eventTitle, long eventTime, int eventTsunamiAlert, float eventMagnitude,
+                 float eventLatitude, float eventLongitude, float eventDepth) {
         title = eventTitle;
         time = eventTime;
         tsunamiAlert = eventTsunamiAlert;
+        magnitude = eventMagnitude;
+        latitude = eventLatitude;
+        longitude = eventLongitude;
+        depth = eventDepth;
     }
 }
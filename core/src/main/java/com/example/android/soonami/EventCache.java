@@ -0,0 +1,287 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.soonami;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * {@link EventCache} keeps the parsed earthquakes of each request URL in a binary file, so the
+ * app can show them at startup without touching the network. Along with the events it stores
+ * the ETag and Last-Modified headers of the response, so the data can later be revalidated
+ * with a conditional request.
+ *
+ * The events are kept in the format of {@link EventSnapshotWriter}, which stores times as
+ * deltas and each distinct title once, and are read back through a memory-mapped buffer.
+ * When the cache grows past its size limit the least recently used files are deleted, except
+ * the one just written: a response that alone is over the limit is still kept, on its own.
+ */
+public final class EventCache {
+
+    /** Magic number at the start of every cache file ("SQEV") */
+    private static final int MAGIC = 0x53514556;
+
+    /** Version of the file layout; files with any other version are ignored */
+    private static final int VERSION = 4;
+
+    /** Offset of the fetch time in the file header, so it can be updated in place */
+    private static final int FETCHED_AT_OFFSET = 8;
+
+    private static final String SUFFIX = ".events";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * {@link Entry} is a cached response: its events, the validators needed to revalidate it
+     * and the time it was last confirmed by the server.
+     */
+    public static final class Entry {
+
+        /** Earthquakes of the cached response */
+        public final EventStore events;
+
+        /** ETag header of the cached response, or null if the server sent none */
+        public final String etag;
+
+        /** Last-Modified header of the cached response, or null if the server sent none */
+        public final String lastModified;
+
+        /** Time the response was last fetched or revalidated (in milliseconds) */
+        public final long fetchedAt;
+
+        Entry(EventStore events, String etag, String lastModified, long fetchedAt) {
+            this.events = events;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.fetchedAt = fetchedAt;
+        }
+    }
+
+    private final File directory;
+    private final long maxBytes;
+
+    /**
+     * Constructs a new {@link EventCache}.
+     *
+     * @param directory is the directory the cache files are kept in
+     * @param maxBytes is the total size the cache files may grow to before old ones are deleted
+     */
+    public EventCache(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the cached response for the given URL, or null if there is none or the file
+     * could not be read.
+     */
+    public synchronized Entry get(String url) {
+        File file = fileFor(url);
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            Entry entry = read(file, url);
+            if (entry != null) {
+                // Mark the file as recently used for eviction
+                file.setLastModified(System.currentTimeMillis());
+            }
+            return entry;
+        } catch (IOException | RuntimeException e) {
+            // A corrupt or truncated file is no better than no file at all
+            file.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Stores the given events as the response for the given URL, replacing any older
+     * response, and then evicts other files if the cache is over its size limit.
+     */
+    public synchronized void put(String url, EventStore events, String etag, String lastModified,
+                                 long fetchedAt) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create cache directory " + directory);
+        }
+        File file = fileFor(url);
+        File tempFile = new File(directory, file.getName() + ".tmp");
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tempFile)));
+        try {
+            write(out, url, events, etag, lastModified, fetchedAt);
+        } finally {
+            out.close();
+        }
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new IOException("Cannot write cache file " + file);
+        }
+        evict(file);
+    }
+
+    /**
+     * Records that the cached response for the given URL was confirmed by the server at the
+     * given time, without rewriting its events.
+     */
+    public synchronized void touch(String url, long fetchedAt) throws IOException {
+        File file = fileFor(url);
+        if (!file.exists()) {
+            return;
+        }
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.seek(FETCHED_AT_OFFSET);
+            randomAccessFile.writeLong(fetchedAt);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Deletes every cache file.
+     */
+    public synchronized void clear() {
+        for (File file : listCacheFiles()) {
+            file.delete();
+        }
+    }
+
+    /**
+     * Deletes the least recently used files other than {@code keep} until the cache fits in
+     * its size limit, or only {@code keep} is left.
+     */
+    private void evict(File keep) {
+        File[] files = listCacheFiles();
+        long totalBytes = 0;
+        for (File file : files) {
+            totalBytes += file.length();
+        }
+        if (totalBytes <= maxBytes) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long aModified = a.lastModified();
+                long bModified = b.lastModified();
+                return aModified < bModified ? -1 : (aModified == bModified ? 0 : 1);
+            }
+        });
+        for (int i = 0; i < files.length && totalBytes > maxBytes; i++) {
+            if (files[i].equals(keep)) {
+                continue;
+            }
+            long length = files[i].length();
+            if (files[i].delete()) {
+                totalBytes -= length;
+            }
+        }
+    }
+
+    private File[] listCacheFiles() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return new File[0];
+        }
+        int count = 0;
+        for (File file : files) {
+            if (file.getName().endsWith(SUFFIX)) {
+                files[count++] = file;
+            }
+        }
+        return Arrays.copyOf(files, count);
+    }
+
+    private File fileFor(String url) {
+        return new File(directory, String.format("%08x", url.hashCode()) + SUFFIX);
+    }
+
+    /**
+     * Writes the header and then the events as a snapshot.
+     */
+    private static void write(DataOutputStream out, String url, EventStore events, String etag,
+                              String lastModified, long fetchedAt) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(fetchedAt);
+        writeString(out, url);
+        writeString(out, etag);
+        writeString(out, lastModified);
+
+        EventSnapshotWriter snapshot = new EventSnapshotWriter(out);
+        snapshot.addAll(events);
+        snapshot.finish();
+    }
+
+    /**
+     * Reads a cache file through a memory-mapped buffer. Returns null if the file belongs to
+     * another URL that happens to share its name, or was written by another version.
+     */
+    private static Entry read(File file, String url) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return null;
+            }
+            long fetchedAt = buffer.getLong();
+            if (!url.equals(readString(buffer))) {
+                return null;
+            }
+            String etag = readString(buffer);
+            String lastModified = readString(buffer);
+
+            EventStore events = new EventStore();
+            new EventSnapshotReader(buffer).readInto(events);
+            return new Entry(events, etag, lastModified, fetchedAt);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Writes a String as its UTF-8 length and bytes; null is written as length -1.
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(MappedByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.soonami;
+
+import java.text.DateFormatSymbols;
+import java.text.DecimalFormatSymbols;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * {@link EventDateFormatter} formats earthquake times exactly like
+ * {@code new SimpleDateFormat("EEE, d MMM yyyy 'at' HH:mm:ss z")}, for example
+ * "Sat, 22 Sep 2018 at 12:34:56 PDT", without building a {@link SimpleDateFormat} or a
+ * {@link java.util.Calendar} for each time.
+ *
+ * Day and month names, digits and time zone names are looked up once for the locale. The
+ * offset of the time zone is cached per hour; an hour that contains a daylight saving
+ * transition is split at the exact transition instant. Formatting into a
+ * {@link StringBuilder} that has enough capacity allocates nothing once the offset of the
+ * hour is cached.
+ *
+ * Instances are thread-safe.
+ */
+public final class EventDateFormatter {
+
+    /** Pattern of the formatted times, used for times this class does not compute itself */
+    private static final String PATTERN = "EEE, d MMM yyyy 'at' HH:mm:ss z";
+
+    /** Times before the Gregorian calendar was adopted, 1582-10-15 UTC (in milliseconds) */
+    private static final long GREGORIAN_CUTOVER = -12219292800000L;
+
+    private static final long HOUR_MILLIS = 60 * 60 * 1000L;
+    private static final long DAY_MILLIS = 24 * HOUR_MILLIS;
+
+    /** Number of hours whose offset is cached; must be a power of two */
+    private static final int CACHE_SIZE = 256;
+
+    /**
+     * {@link OffsetWindow} is a stretch of time during which the time zone has one offset.
+     * Its fields are final, so a window read from the cache by another thread is always
+     * seen complete.
+     */
+    private static final class OffsetWindow {
+        final long start;
+        final long end;
+        final int offset;
+        final String zoneName;
+
+        OffsetWindow(long start, long end, int offset, String zoneName) {
+            this.start = start;
+            this.end = end;
+            this.offset = offset;
+            this.zoneName = zoneName;
+        }
+    }
+
+    private final TimeZone timeZone;
+    private final Locale locale;
+    private final boolean gregorian;
+    private final String[] weekdays;
+    private final String[] months;
+    private final char zeroDigit;
+    private final String standardName;
+    private final String daylightName;
+    private final OffsetWindow[] cache = new OffsetWindow[CACHE_SIZE];
+
+    /**
+     * Constructs a new {@link EventDateFormatter} for the default locale and time zone,
+     * the same ones a new {@link SimpleDateFormat} would use.
+     */
+    public EventDateFormatter() {
+        this(Locale.getDefault(), TimeZone.getDefault());
+    }
+
+    /**
+     * Constructs a new {@link EventDateFormatter} for the given locale and time zone.
+     */
+    public EventDateFormatter(Locale locale, TimeZone timeZone) {
+        this.locale = locale;
+        this.timeZone = (TimeZone) timeZone.clone();
+        // Some locales, such as th_TH, count years in a calendar of their own
+        gregorian = Calendar.getInstance(timeZone, locale).getClass() == GregorianCalendar.class;
+        DateFormatSymbols symbols = DateFormatSymbols.getInstance(locale);
+        weekdays = symbols.getShortWeekdays();
+        months = symbols.getShortMonths();
+        zeroDigit = DecimalFormatSymbols.getInstance(locale).getZeroDigit();
+        standardName = this.timeZone.getDisplayName(false, TimeZone.SHORT, locale);
+        daylightName = this.timeZone.getDisplayName(true, TimeZone.SHORT, locale);
+    }
+
+    /**
+     * Returns the given time (in milliseconds) as a formatted String.
+     */
+    public String format(long timeInMilliseconds) {
+        StringBuilder out = new StringBuilder(40);
+        format(timeInMilliseconds, out);
+        return out.toString();
+    }
+
+    /**
+     * Appends the given time (in milliseconds), formatted, to the given builder.
+     */
+    public void format(long timeInMilliseconds, StringBuilder out) {
+        if (!gregorian || timeInMilliseconds < GREGORIAN_CUTOVER) {
+            // Other calendars, and times before 1582, go through SimpleDateFormat itself
+            SimpleDateFormat formatter = new SimpleDateFormat(PATTERN, locale);
+            formatter.setTimeZone(timeZone);
+            out.append(formatter.format(new Date(timeInMilliseconds)));
+            return;
+        }
+
+        OffsetWindow window = windowFor(timeInMilliseconds);
+        long localTime = timeInMilliseconds + window.offset;
+        long days = floorDiv(localTime, DAY_MILLIS);
+        int millisOfDay = (int) (localTime - days * DAY_MILLIS);
+
+        // Converts days since 1970-01-01 into a civil date (Howard Hinnant's algorithm)
+        long shifted = days + 719468;
+        long era = floorDiv(shifted, 146097);
+        int dayOfEra = (int) (shifted - era * 146097);
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int monthIndex = (5 * dayOfYear + 2) / 153;
+        int dayOfMonth = dayOfYear - (153 * monthIndex + 2) / 5 + 1;
+        int month = monthIndex < 10 ? monthIndex + 3 : monthIndex - 9;
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+        // 1970-01-01 was a Thursday, and Calendar numbers the days from Sunday = 1
+        int dayOfWeek = (int) floorMod(days + 4, 7) + 1;
+
+        out.append(weekdays[dayOfWeek]).append(", ");
+        appendNumber(out, dayOfMonth, 1);
+        out.append(' ').append(months[month - 1]).append(' ');
+        appendNumber(out, year, 4);
+        out.append(" at ");
+        appendNumber(out, millisOfDay / 3600000, 2);
+        out.append(':');
+        appendNumber(out, millisOfDay / 60000 % 60, 2);
+        out.append(':');
+        appendNumber(out, millisOfDay / 1000 % 60, 2);
+        out.append(' ').append(window.zoneName);
+    }
+
+    /**
+     * Returns the cached offset window that contains the given time, computing it if the
+     * cache does not have it.
+     */
+    private OffsetWindow windowFor(long time) {
+        long hour = floorDiv(time, HOUR_MILLIS);
+        int slot = (int) (hour & (CACHE_SIZE - 1));
+        OffsetWindow window = cache[slot];
+        if (window != null && time >= window.start && time < window.end) {
+            return window;
+        }
+
+        long start = hour * HOUR_MILLIS;
+        long end = start + HOUR_MILLIS;
+        int startOffset = timeZone.getOffset(start);
+        if (timeZone.getOffset(end - 1) != startOffset) {
+            // The offset changes during this hour; find the first millisecond of the new one
+            long low = start;
+            long high = end - 1;
+            while (low < high) {
+                long mid = (low + high) >>> 1;
+                if (timeZone.getOffset(mid) == startOffset) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            if (time < low) {
+                end = low;
+            } else {
+                start = low;
+            }
+        }
+        boolean daylight = timeZone.inDaylightTime(new Date(start));
+        window = new OffsetWindow(start, end, timeZone.getOffset(start),
+                daylight ? daylightName : standardName);
+        cache[slot] = window;
+        return window;
+    }
+
+    /**
+     * Appends a non-negative number, padded with zeros to the given number of digits, in the
+     * digits of the locale.
+     */
+    private void appendNumber(StringBuilder out, long value, int minDigits) {
+        int digits = 1;
+        for (long rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        for (int i = digits; i < minDigits; i++) {
+            out.append(zeroDigit);
+        }
+        long divisor = 1;
+        for (int i = 1; i < digits; i++) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            out.append((char) (zeroDigit + value / divisor % 10));
+        }
+    }
+
+    private static long floorDiv(long x, long y) {
+        long quotient = x / y;
+        if ((x % y != 0) && ((x ^ y) < 0)) {
+            quotient--;
+        }
+        return quotient;
+    }
+
+    private static long floorMod(long x, long y) {
+        return x - floorDiv(x, y) * y;
+    }
+}
@@ -0,0 +1,573 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.soonami;
+
+import java.util.Arrays;
+
+/**
+ * {@link EventIndex} answers "where and when" questions about the earthquakes of an
+ * {@link EventStore}, such as every tsunami-flagged earthquake within 500 km of a point in
+ * the last 30 days, or the ten earthquakes nearest to a point, without looking at every row.
+ *
+ * The primary index is time: events are sorted newest first and cut into blocks of
+ * {@link #BLOCK_SIZE} events, so a time window only touches the blocks it overlaps. Inside
+ * each block the epicenters are kept in a k-d tree over points on the unit sphere, where
+ * straight-line distance grows with distance along the surface, so neither the date line nor
+ * the poles need special cases.
+ *
+ * An index is a snapshot: rows that are added to or changed in the store later are not seen
+ * until a new index is built. Rows whose location is unknown are left out. Instances are
+ * immutable and can be queried from any thread.
+ */
+public final class EventIndex {
+
+    /** Mean radius of the Earth in kilometers */
+    public static final double EARTH_RADIUS_KM = 6371.0088;
+
+    /** Number of events in each time block */
+    static final int BLOCK_SIZE = 4096;
+
+    /**
+     * {@link Query} holds the parameters of one query and, for nearest neighbor queries,
+     * the best matches found so far as a max-heap on distance.
+     */
+    private static final class Query {
+        final double x;
+        final double y;
+        final double z;
+        final long startTime;
+        final long endTime;
+        final boolean tsunamiOnly;
+
+        /** Squared straight-line distance a match may be from the query point */
+        double maxDistance2;
+
+        int[] matches;
+        double[] distances2;
+        int matchCount;
+
+        Query(double latitude, double longitude, long startTime, long endTime,
+              boolean tsunamiOnly) {
+            double lat = Math.toRadians(latitude);
+            double lon = Math.toRadians(longitude);
+            x = Math.cos(lat) * Math.cos(lon);
+            y = Math.cos(lat) * Math.sin(lon);
+            z = Math.sin(lat);
+            this.startTime = startTime;
+            this.endTime = endTime;
+            this.tsunamiOnly = tsunamiOnly;
+        }
+    }
+
+    private final int size;
+
+    /** Store row of each event, in index order */
+    private final int[] rows;
+    private final long[] times;
+    private final byte[] tsunamiAlerts;
+
+    /** Epicenters as points on the unit sphere */
+    private final double[] xs;
+    private final double[] ys;
+    private final double[] zs;
+
+    /** Split axis (0 = x, 1 = y, 2 = z) of the k-d tree node at each position */
+    private final byte[] axes;
+
+    /** Rank of each event when all events are sorted newest first */
+    private final int[] timeRanks;
+
+    /** Position of the event with each time rank */
+    private final int[] positions;
+
+    private final int blockCount;
+
+    /** Oldest time in each block; blocks are ordered newest first */
+    private final long[] blockOldest;
+    private final long[] blockNewest;
+
+    /** Smallest and largest x, y and z of each block, six values per block */
+    private final double[] blockBounds;
+
+    /**
+     * Constructs a new {@link EventIndex} over the rows the given store holds now.
+     */
+    public EventIndex(EventStore events) {
+        int[] order = new int[events.size()];
+        events.latest(order);
+        int count = 0;
+        for (int row : order) {
+            if (!Float.isNaN(events.getLatitude(row)) && !Float.isNaN(events.getLongitude(row))) {
+                order[count++] = row;
+            }
+        }
+
+        size = count;
+        rows = new int[size];
+        times = new long[size];
+        tsunamiAlerts = new byte[size];
+        xs = new double[size];
+        ys = new double[size];
+        zs = new double[size];
+        axes = new byte[size];
+        timeRanks = new int[size];
+        positions = new int[size];
+        for (int i = 0; i < size; i++) {
+            int row = order[i];
+            double lat = Math.toRadians(events.getLatitude(row));
+            double lon = Math.toRadians(events.getLongitude(row));
+            rows[i] = row;
+            times[i] = events.getTime(row);
+            tsunamiAlerts[i] = (byte) events.getTsunamiAlert(row);
+            xs[i] = Math.cos(lat) * Math.cos(lon);
+            ys[i] = Math.cos(lat) * Math.sin(lon);
+            zs[i] = Math.sin(lat);
+            timeRanks[i] = i;
+        }
+
+        blockCount = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        blockOldest = new long[blockCount];
+        blockNewest = new long[blockCount];
+        blockBounds = new double[6 * blockCount];
+        double[] bounds = new double[6];
+        for (int block = 0; block < blockCount; block++) {
+            int start = block * BLOCK_SIZE;
+            int end = Math.min(start + BLOCK_SIZE, size);
+            blockNewest[block] = times[start];
+            blockOldest[block] = times[end - 1];
+            computeBounds(start, end, blockBounds, 6 * block);
+            buildTree(start, end, bounds);
+        }
+        for (int i = 0; i < size; i++) {
+            positions[timeRanks[i]] = i;
+        }
+    }
+
+    /**
+     * Returns the number of located earthquakes in the index.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Fills {@code out} with the store rows of earthquakes within the given distance of a
+     * point that happened at or after {@code startTime} and before {@code endTime}, newest
+     * first, and returns how many were written. At most {@code out.length} rows are written.
+     *
+     * @param latitude is the latitude of the point in degrees
+     * @param longitude is the longitude of the point in degrees
+     * @param radiusKm is the largest distance along the surface, in kilometers
+     * @param tsunamiOnly is true to only match earthquakes that had a tsunami alert
+     */
+    public int withinDistance(double latitude, double longitude, double radiusKm,
+                              long startTime, long endTime, boolean tsunamiOnly, int[] out) {
+        Query query = newRadiusQuery(latitude, longitude, radiusKm, startTime, endTime,
+                tsunamiOnly);
+        query.matches = new int[Math.min(size, BLOCK_SIZE)];
+        int count = 0;
+        for (int block = 0; block < blockCount && count < out.length; block++) {
+            if (blockNewest[block] < startTime) {
+                break;
+            }
+            if (!mayMatch(block, query)) {
+                continue;
+            }
+            query.matchCount = 0;
+            int start = block * BLOCK_SIZE;
+            searchWithin(start, Math.min(start + BLOCK_SIZE, size), query);
+
+            // Matches were found in tree order; time ranks put them back newest first
+            for (int i = 0; i < query.matchCount; i++) {
+                query.matches[i] = timeRanks[query.matches[i]];
+            }
+            Arrays.sort(query.matches, 0, query.matchCount);
+            for (int i = 0; i < query.matchCount && count < out.length; i++) {
+                out[count++] = rows[positions[query.matches[i]]];
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns how many earthquakes {@link #withinDistance} would find with an array large
+     * enough for all of them.
+     */
+    public int countWithinDistance(double latitude, double longitude, double radiusKm,
+                                   long startTime, long endTime, boolean tsunamiOnly) {
+        Query query = newRadiusQuery(latitude, longitude, radiusKm, startTime, endTime,
+                tsunamiOnly);
+        int count = 0;
+        for (int block = 0; block < blockCount; block++) {
+            if (blockNewest[block] < startTime) {
+                break;
+            }
+            if (mayMatch(block, query)) {
+                query.matchCount = 0;
+                int start = block * BLOCK_SIZE;
+                searchWithin(start, Math.min(start + BLOCK_SIZE, size), query);
+                count += query.matchCount;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Fills {@code out} with the store rows of the earthquakes nearest to a point that
+     * happened at or after {@code startTime} and before {@code endTime}, nearest first, and
+     * returns how many were written. Up to {@code out.length} rows are written.
+     *
+     * @param latitude is the latitude of the point in degrees
+     * @param longitude is the longitude of the point in degrees
+     * @param tsunamiOnly is true to only match earthquakes that had a tsunami alert
+     */
+    public int nearest(double latitude, double longitude, long startTime, long endTime,
+                       boolean tsunamiOnly, int[] out) {
+        int k = Math.min(out.length, size);
+        if (k == 0) {
+            return 0;
+        }
+        Query query = new Query(latitude, longitude, startTime, endTime, tsunamiOnly);
+        query.matches = new int[k];
+        query.distances2 = new double[k];
+        query.maxDistance2 = Double.POSITIVE_INFINITY;
+
+        // Visits the blocks in the time window closest first, so the heap fills with near
+        // events early and far blocks are skipped
+        int[] blocks = new int[blockCount];
+        double[] blockDistances2 = new double[blockCount];
+        int candidateCount = 0;
+        for (int block = 0; block < blockCount; block++) {
+            if (blockNewest[block] < startTime) {
+                break;
+            }
+            if (blockOldest[block] < endTime) {
+                double distance2 = boundsDistance2(block, query);
+                int i = candidateCount++;
+                for (; i > 0 && blockDistances2[i - 1] > distance2; i--) {
+                    blocks[i] = blocks[i - 1];
+                    blockDistances2[i] = blockDistances2[i - 1];
+                }
+                blocks[i] = block;
+                blockDistances2[i] = distance2;
+            }
+        }
+        for (int i = 0; i < candidateCount; i++) {
+            if (blockDistances2[i] > query.maxDistance2) {
+                break;
+            }
+            int start = blocks[i] * BLOCK_SIZE;
+            searchNearest(start, Math.min(start + BLOCK_SIZE, size), query);
+        }
+
+        // Empties the max-heap from the back so the nearest row comes first
+        int count = query.matchCount;
+        for (int i = count - 1; i >= 0; i--) {
+            out[i] = rows[query.matches[0]];
+            removeFarthest(query);
+        }
+        return count;
+    }
+
+    /**
+     * Returns the distance in kilometers along the surface of the Earth between two points
+     * given in degrees.
+     */
+    public static double distanceKm(double latitude1, double longitude1,
+                                    double latitude2, double longitude2) {
+        double lat1 = Math.toRadians(latitude1);
+        double lat2 = Math.toRadians(latitude2);
+        double sinLat = Math.sin((lat2 - lat1) / 2);
+        double sinLon = Math.sin(Math.toRadians(longitude2 - longitude1) / 2);
+        double a = sinLat * sinLat + Math.cos(lat1) * Math.cos(lat2) * sinLon * sinLon;
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    private static Query newRadiusQuery(double latitude, double longitude, double radiusKm,
+                                        long startTime, long endTime, boolean tsunamiOnly) {
+        Query query = new Query(latitude, longitude, startTime, endTime, tsunamiOnly);
+        double angle = radiusKm / EARTH_RADIUS_KM;
+        if (angle >= Math.PI) {
+            // Covers the whole sphere, whose largest straight-line distance is 2
+            query.maxDistance2 = 4.5;
+        } else {
+            double chord = 2 * Math.sin(angle / 2);
+            query.maxDistance2 = chord * chord;
+        }
+        return query;
+    }
+
+    /**
+     * Returns whether the given block can hold matches of a radius query.
+     */
+    private boolean mayMatch(int block, Query query) {
+        return blockOldest[block] < query.endTime
+                && boundsDistance2(block, query) <= query.maxDistance2;
+    }
+
+    /**
+     * Returns the squared distance from the query point to the bounding box of a block.
+     */
+    private double boundsDistance2(int block, Query query) {
+        int offset = 6 * block;
+        double dx = outside(query.x, blockBounds[offset], blockBounds[offset + 3]);
+        double dy = outside(query.y, blockBounds[offset + 1], blockBounds[offset + 4]);
+        double dz = outside(query.z, blockBounds[offset + 2], blockBounds[offset + 5]);
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    private static double outside(double value, double min, double max) {
+        return value < min ? min - value : (value > max ? value - max : 0);
+    }
+
+    /**
+     * Collects the positions of the tree between {@code start} and {@code end} that match
+     * a radius query, or only counts them if the query has no array for them.
+     */
+    private void searchWithin(int start, int end, Query query) {
+        while (start < end) {
+            int mid = (start + end) >>> 1;
+            if (matches(mid, query) && distance2(mid, query) <= query.maxDistance2) {
+                if (query.matches != null) {
+                    query.matches[query.matchCount] = mid;
+                }
+                query.matchCount++;
+            }
+            double diff = axisDistance(mid, query);
+            boolean searchLeft = diff * diff <= query.maxDistance2 || diff < 0;
+            boolean searchRight = diff * diff <= query.maxDistance2 || diff > 0;
+            if (searchLeft && searchRight) {
+                searchWithin(start, mid, query);
+                start = mid + 1;
+            } else if (searchLeft) {
+                end = mid;
+            } else {
+                start = mid + 1;
+            }
+        }
+    }
+
+    /**
+     * Offers the positions of the tree between {@code start} and {@code end} to the heap of
+     * a nearest neighbor query, skipping subtrees that cannot beat its current worst match.
+     */
+    private void searchNearest(int start, int end, Query query) {
+        if (start >= end) {
+            return;
+        }
+        int mid = (start + end) >>> 1;
+        if (matches(mid, query)) {
+            offer(mid, distance2(mid, query), query);
+        }
+        double diff = axisDistance(mid, query);
+        if (diff < 0) {
+            searchNearest(start, mid, query);
+            if (diff * diff <= query.maxDistance2) {
+                searchNearest(mid + 1, end, query);
+            }
+        } else {
+            searchNearest(mid + 1, end, query);
+            if (diff * diff <= query.maxDistance2) {
+                searchNearest(start, mid, query);
+            }
+        }
+    }
+
+    /**
+     * Returns whether the event at the given position passes the time and tsunami filters.
+     */
+    private boolean matches(int position, Query query) {
+        long time = times[position];
+        return time >= query.startTime && time < query.endTime
+                && (!query.tsunamiOnly || tsunamiAlerts[position] == 1);
+    }
+
+    private double distance2(int position, Query query) {
+        double dx = xs[position] - query.x;
+        double dy = ys[position] - query.y;
+        double dz = zs[position] - query.z;
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    /**
+     * Returns how far the query point is past the split plane of the node at the given
+     * position; negative means it is on the left side.
+     */
+    private double axisDistance(int position, Query query) {
+        switch (axes[position]) {
+            case 0:
+                return query.x - xs[position];
+            case 1:
+                return query.y - ys[position];
+            default:
+                return query.z - zs[position];
+        }
+    }
+
+    /**
+     * Adds a position to the max-heap of a nearest neighbor query if it is closer than the
+     * farthest match kept so far.
+     */
+    private static void offer(int position, double distance2, Query query) {
+        int[] heap = query.matches;
+        double[] distances2 = query.distances2;
+        if (query.matchCount < heap.length) {
+            int i = query.matchCount++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (distances2[parent] >= distance2) {
+                    break;
+                }
+                heap[i] = heap[parent];
+                distances2[i] = distances2[parent];
+                i = parent;
+            }
+            heap[i] = position;
+            distances2[i] = distance2;
+        } else if (distance2 < distances2[0]) {
+            siftDown(0, position, distance2, query);
+        } else {
+            return;
+        }
+        if (query.matchCount == heap.length) {
+            query.maxDistance2 = distances2[0];
+        }
+    }
+
+    /**
+     * Removes the farthest match from the max-heap of a nearest neighbor query.
+     */
+    private static void removeFarthest(Query query) {
+        int last = --query.matchCount;
+        if (last > 0) {
+            siftDown(0, query.matches[last], query.distances2[last], query);
+        }
+    }
+
+    private static void siftDown(int i, int position, double distance2, Query query) {
+        int[] heap = query.matches;
+        double[] distances2 = query.distances2;
+        int count = query.matchCount;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= count) {
+                break;
+            }
+            if (child + 1 < count && distances2[child + 1] > distances2[child]) {
+                child++;
+            }
+            if (distances2[child] <= distance2) {
+                break;
+            }
+            heap[i] = heap[child];
+            distances2[i] = distances2[child];
+            i = child;
+        }
+        heap[i] = position;
+        distances2[i] = distance2;
+    }
+
+    /**
+     * Arranges the events between {@code start} and {@code end} as an implicit k-d tree:
+     * the node of a range sits at its middle position, with the smaller half of the
+     * coordinates on its split axis before it and the larger half after it.
+     */
+    private void buildTree(int start, int end, double[] bounds) {
+        while (end - start > 1) {
+            computeBounds(start, end, bounds, 0);
+            int axis = 0;
+            for (int i = 1; i < 3; i++) {
+                if (bounds[i + 3] - bounds[i] > bounds[axis + 3] - bounds[axis]) {
+                    axis = i;
+                }
+            }
+            int mid = (start + end) >>> 1;
+            select(start, end - 1, mid, axis);
+            axes[mid] = (byte) axis;
+            buildTree(start, mid, bounds);
+            start = mid + 1;
+        }
+    }
+
+    private void computeBounds(int start, int end, double[] bounds, int offset) {
+        bounds[offset] = bounds[offset + 1] = bounds[offset + 2] = Double.POSITIVE_INFINITY;
+        bounds[offset + 3] = bounds[offset + 4] = bounds[offset + 5] = Double.NEGATIVE_INFINITY;
+        for (int i = start; i < end; i++) {
+            bounds[offset] = Math.min(bounds[offset], xs[i]);
+            bounds[offset + 1] = Math.min(bounds[offset + 1], ys[i]);
+            bounds[offset + 2] = Math.min(bounds[offset + 2], zs[i]);
+            bounds[offset + 3] = Math.max(bounds[offset + 3], xs[i]);
+            bounds[offset + 4] = Math.max(bounds[offset + 4], ys[i]);
+            bounds[offset + 5] = Math.max(bounds[offset + 5], zs[i]);
+        }
+    }
+
+    /**
+     * Moves the events between {@code low} and {@code high} (inclusive) so that position
+     * {@code k} holds the one that belongs there in order of the given axis, with no larger
+     * one before it and no smaller one after it.
+     */
+    private void select(int low, int high, int k, int axis) {
+        double[] values = axis == 0 ? xs : (axis == 1 ? ys : zs);
+        while (low < high) {
+            double pivot = values[(low + high) >>> 1];
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (values[i] < pivot) {
+                    i++;
+                }
+                while (values[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(i++, j--);
+                }
+            }
+            if (k <= j) {
+                high = j;
+            } else if (k >= i) {
+                low = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void swap(int i, int j) {
+        int row = rows[i];
+        rows[i] = rows[j];
+        rows[j] = row;
+        long time = times[i];
+        times[i] = times[j];
+        times[j] = time;
+        byte tsunamiAlert = tsunamiAlerts[i];
+        tsunamiAlerts[i] = tsunamiAlerts[j];
+        tsunamiAlerts[j] = tsunamiAlert;
+        double x = xs[i];
+        xs[i] = xs[j];
+        xs[j] = x;
+        double y = ys[i];
+        ys[i] = ys[j];
+        ys[j] = y;
+        double z = zs[i];
+        zs[i] = zs[j];
+        zs[j] = z;
+        int timeRank = timeRanks[i];
+        timeRanks[i] = timeRanks[j];
+        timeRanks[j] = timeRank;
+    }
+}
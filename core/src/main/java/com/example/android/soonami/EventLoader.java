@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.soonami;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * {@link EventLoader} fetches the earthquakes of a USGS query through an {@link EventCache}.
+ *
+ * {@link #loadCached()} returns whatever is on disk without going to the network, so the
+ * screen can be filled right away. {@link #refresh()} then goes to the server only if the
+ * cached copy is older than the staleness limit, and sends the ETag and Last-Modified
+ * validators along so an unchanged feed costs a 304 response instead of a full download.
+ *
+ * {@link #sync()} is the incremental alternative to {@link #refresh()}: once something is
+ * cached it only asks USGS for the events updated after the newest update time already in
+ * the cache, and merges them into the cached events by event id, so the cost of a refresh
+ * grows with the number of new events rather than with the length of the history.
+ */
+public final class EventLoader {
+
+    private final URL url;
+    private final HttpTransport transport;
+    private final EventCache cache;
+    private final long maxAgeMillis;
+    private final Clock clock;
+
+    /** The cached response read last, so {@link #refresh()} does not read the file twice */
+    private EventCache.Entry entry;
+
+    /** Scheduler and shards for the first full download, or null to download in one piece */
+    private FetchScheduler scheduler;
+    private List<URL> shards;
+
+    /**
+     * Constructs a new {@link EventLoader}.
+     *
+     * @param url is the USGS query to load
+     * @param transport makes the requests
+     * @param cache is where responses are kept between runs
+     * @param maxAgeMillis is how long a cached response is used before it is revalidated
+     */
+    public EventLoader(URL url, HttpTransport transport, EventCache cache, long maxAgeMillis) {
+        this(url, transport, cache, maxAgeMillis, Clock.SYSTEM);
+    }
+
+    /**
+     * Constructs a new {@link EventLoader} that tells the age of cached responses with the
+     * given clock.
+     */
+    public EventLoader(URL url, HttpTransport transport, EventCache cache, long maxAgeMillis,
+                       Clock clock) {
+        this.url = url;
+        this.transport = transport;
+        this.cache = cache;
+        this.maxAgeMillis = maxAgeMillis;
+        this.clock = clock;
+    }
+
+    /**
+     * Makes {@link #sync()} do its first full download as the given shards, fetched in
+     * parallel on the given scheduler. The shards together must cover the same events as
+     * the URL of this loader.
+     */
+    public void setShards(FetchScheduler scheduler, List<URL> shards) {
+        this.scheduler = scheduler;
+        this.shards = shards;
+    }
+
+    /**
+     * Cancels the parallel first full download if one is in flight, which makes its
+     * {@link #sync()} throw an {@link java.io.InterruptedIOException}; nothing is cached, so
+     * the next sync starts it again. Other requests are not affected.
+     */
+    public void cancel() {
+        if (scheduler != null) {
+            scheduler.cancel();
+        }
+    }
+
+    /**
+     * Returns the cached earthquakes for the query, or null if nothing is cached.
+     */
+    public EventStore loadCached() {
+        entry = cache.get(url.toString());
+        return entry == null ? null : entry.events;
+    }
+
+    /**
+     * Brings the cached earthquakes up to date and returns them. Nothing is requested while
+     * the cached copy is fresh; once it is stale a conditional request is made, and the
+     * response is only downloaded and parsed if the server says it has changed.
+     */
+    public EventStore refresh() throws IOException {
+        return refresh(maxAgeMillis);
+    }
+
+    private EventStore refresh(long maxAgeMillis) throws IOException {
+        long now = clock.now();
+        if (entry == null) {
+            entry = cache.get(url.toString());
+        }
+        if (entry != null && now - entry.fetchedAt < maxAgeMillis) {
+            return entry.events;
+        }
+
+        HttpTransport.Response response = transport.get(url,
+                entry == null ? null : entry.etag, entry == null ? null : entry.lastModified);
+        try {
+            if (response.code == HttpURLConnection.HTTP_NOT_MODIFIED && entry != null) {
+                cache.touch(url.toString(), now);
+                entry = new EventCache.Entry(entry.events, entry.etag, entry.lastModified, now);
+                return entry.events;
+            }
+            if (response.code != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Error response code: " + response.code);
+            }
+
+            EventStore events = new EventStore();
+            readEvents(transport, response, events);
+            cache.put(url.toString(), events, response.etag, response.lastModified, now);
+            entry = new EventCache.Entry(events, response.etag, response.lastModified, now);
+            return events;
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * Brings the cached earthquakes up to date by downloading only the events that were
+     * updated since the last sync, and returns them. When nothing is cached yet the whole
+     * query is downloaded, in parallel shards if {@link #setShards} was called. Nothing is
+     * requested while the cached copy is fresh.
+     */
+    public EventStore sync() throws IOException {
+        return sync(maxAgeMillis);
+    }
+
+    /**
+     * Works like {@link #sync()}, but with the given staleness limit instead of the one the
+     * loader was constructed with; 0 always asks the server for new events.
+     */
+    public EventStore sync(long maxAgeMillis) throws IOException {
+        long now = clock.now();
+        if (entry == null) {
+            entry = cache.get(url.toString());
+        }
+        // Checked first, so a query that is empty right now is not downloaded in full again
+        // on every sync
+        if (entry != null && now - entry.fetchedAt < maxAgeMillis) {
+            return entry.events;
+        }
+        if ((entry == null || entry.events.size() == 0) && scheduler != null) {
+            EventStore events = scheduler.fetchAll(shards);
+            cache.put(url.toString(), events, null, null, now);
+            entry = new EventCache.Entry(events, null, null, now);
+            return events;
+        } else if (entry == null || entry.events.size() == 0) {
+            return refresh(maxAgeMillis);
+        }
+
+        HttpTransport.Response response = transport.get(
+                createDeltaUrl(url, entry.events.getNewestUpdated()), null, null);
+        try {
+            if (response.code != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Error response code: " + response.code);
+            }
+
+            // Parsed on its own first: a delta that breaks off halfway must not leave part of
+            // its events merged, or the next window would start after the ones it lost
+            EventStore delta = new EventStore();
+            readEvents(transport, response, delta);
+            EventStore events = entry.events;
+            events.putAll(delta);
+            // The validators belonged to the last full response, which the merged events
+            // no longer match, so they are dropped
+            cache.put(url.toString(), events, null, null, now);
+            entry = new EventCache.Entry(events, null, null, now);
+            return events;
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * Returns the given USGS query narrowed down to the events updated at or after the
+     * given time. Events at exactly that time come back again, but merging them by event id
+     * makes that harmless, and it avoids missing events that share the same update time.
+     */
+    static URL createDeltaUrl(URL url, long updatedAfter) throws IOException {
+        String separator = url.getQuery() == null ? "?" : "&";
+        return new URL(url.toString() + separator + "updatedafter="
+                + formatQueryTime(updatedAfter));
+    }
+
+    /**
+     * Returns the given time (in milliseconds) in the UTC ISO 8601 form that the USGS query
+     * parameters expect.
+     */
+    static String formatQueryTime(long timeInMilliseconds) {
+        SimpleDateFormat formatter = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS", Locale.US);
+        formatter.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return formatter.format(new Date(timeInMilliseconds));
+    }
+
+    /**
+     * Parses the body of the given response into the given store, through a buffer borrowed
+     * from the transport, and records the parse in the transport's metrics.
+     */
+    static void readEvents(HttpTransport transport, HttpTransport.Response response,
+                           EventStore events) throws IOException {
+        PipelineMetrics metrics = transport.getMetrics();
+        long start = metrics.start();
+        byte[] buffer = transport.acquireBuffer();
+        try {
+            int count = new EventStreamParser(response.body, buffer).readInto(events);
+            metrics.record(PipelineMetrics.Stage.PARSE, start);
+            metrics.addEventsParsed(count);
+        } finally {
+            transport.releaseBuffer(buffer);
+        }
+    }
+}
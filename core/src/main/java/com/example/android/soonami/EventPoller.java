@@ -0,0 +1,303 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.soonami;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link EventPoller} keeps the earthquakes of an {@link EventLoader} up to date in the
+ * background.
+ *
+ * Every sync runs on one thread of the poller. A refresh that is requested while a sync is
+ * in flight joins that sync instead of starting another one, so a burst of requests costs a
+ * single round trip. While running, the poller syncs again after its normal interval, or
+ * after its shorter urgent interval while a recent earthquake was strong or raised a tsunami
+ * alert. After a failed sync, including an error response code or an unexpected exception,
+ * it waits twice as long as after the previous failure, up to {@link #MAX_BACKOFF_MILLIS}.
+ */
+public final class EventPoller {
+
+    /**
+     * {@link Listener} is told about the results of the poller. Its methods are called on
+     * the thread of the poller, before the next sync can start, so they may read the given
+     * {@link EventStore} until they return; the next sync changes it.
+     */
+    public interface Listener {
+
+        /**
+         * Called with the cached earthquakes before the first sync, and with the earthquakes
+         * after every successful sync.
+         */
+        void onEventsLoaded(EventStore events);
+
+        /**
+         * Called when a sync failed, with the time until the poller tries again (in
+         * milliseconds), or -1 if it is not running.
+         */
+        void onLoadFailed(IOException error, long retryDelayMillis);
+    }
+
+    /** Earthquakes at least this strong make polling urgent while they are recent */
+    static final float URGENT_MAGNITUDE = 7.5f;
+
+    /** How long after a strong or tsunami-raising earthquake polling stays urgent */
+    static final long URGENT_WINDOW_MILLIS = 24 * 60 * 60 * 1000L;
+
+    /** Delay after the first failed sync; it doubles with every further failure */
+    static final long MIN_BACKOFF_MILLIS = 30 * 1000L;
+
+    /** Longest delay after failed syncs */
+    static final long MAX_BACKOFF_MILLIS = 60 * 60 * 1000L;
+
+    private final EventLoader loader;
+    private final Clock clock;
+    private final long intervalMillis;
+    private final long urgentIntervalMillis;
+    private final ScheduledExecutorService executor;
+
+    private volatile Listener listener;
+
+    /** Whether the cached events were handed to the listener; only used by the poller thread */
+    private boolean cachedLoaded;
+
+    /** The sync in flight, which new requests join, or null */
+    private Future<EventStore> inFlight;
+
+    /** The next scheduled sync while running, or null */
+    private ScheduledFuture<?> nextPoll;
+
+    private boolean running;
+    private int failureCount;
+    private int syncCount;
+
+    /** Starts a scheduled sync, joining one that is already in flight */
+    private final Runnable poll = new Runnable() {
+        @Override
+        public void run() {
+            refresh(true);
+        }
+    };
+
+    /**
+     * Constructs a new {@link EventPoller}, which does nothing until {@link #start()} or
+     * {@link #requestRefresh()} is called.
+     *
+     * @param loader syncs the earthquakes
+     * @param clock tells how recent the earthquakes are
+     * @param intervalMillis is the time between two syncs
+     * @param urgentIntervalMillis is the time between two syncs while a recent earthquake
+     *                             was strong or raised a tsunami alert
+     */
+    public EventPoller(EventLoader loader, Clock clock, long intervalMillis,
+                       long urgentIntervalMillis) {
+        this(loader, clock, intervalMillis, urgentIntervalMillis,
+                Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "EventPoller");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                }));
+    }
+
+    /**
+     * Constructs a new {@link EventPoller} that runs its syncs and schedules its polls on
+     * the given executor, which must run one task at a time. {@link #shutdown()} shuts it
+     * down.
+     */
+    public EventPoller(EventLoader loader, Clock clock, long intervalMillis,
+                       long urgentIntervalMillis, ScheduledExecutorService executor) {
+        this.loader = loader;
+        this.clock = clock;
+        this.intervalMillis = intervalMillis;
+        this.urgentIntervalMillis = urgentIntervalMillis;
+        this.executor = executor;
+    }
+
+    /**
+     * Sets the listener that is told about the results, or null to stop telling anyone.
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Starts polling with a refresh right away. The first refresh does not go to the
+     * server if the loader's cached copy is still fresh.
+     */
+    public synchronized void start() {
+        running = true;
+        requestRefresh();
+    }
+
+    /**
+     * Stops scheduling syncs. An incremental sync in flight is finished, so its few new
+     * events still reach the cache, but a first full download in shards is cancelled
+     * through {@link EventLoader#cancel()}; the next {@link #start()} begins it again.
+     */
+    public synchronized void stop() {
+        running = false;
+        if (nextPoll != null) {
+            nextPoll.cancel(false);
+            nextPoll = null;
+        }
+        if (inFlight != null) {
+            loader.cancel();
+        }
+    }
+
+    /**
+     * Stops the poller for good, including its thread.
+     */
+    public void shutdown() {
+        stop();
+        executor.shutdownNow();
+    }
+
+    /**
+     * Asks for the earthquakes to be brought up to date and returns the sync that does it.
+     * If a sync is already in flight, that one is returned instead of starting another.
+     * Like {@link EventLoader#sync()}, it does not go to the server while the cached copy
+     * is fresh.
+     */
+    public Future<EventStore> requestRefresh() {
+        return refresh(false);
+    }
+
+    /**
+     * Returns how many syncs the poller has started.
+     */
+    public synchronized int getSyncCount() {
+        return syncCount;
+    }
+
+    private synchronized Future<EventStore> refresh(final boolean scheduled) {
+        if (inFlight != null) {
+            return inFlight;
+        }
+        if (nextPoll != null) {
+            nextPoll.cancel(false);
+            nextPoll = null;
+        }
+        syncCount++;
+        inFlight = executor.submit(new Callable<EventStore>() {
+            @Override
+            public EventStore call() throws IOException {
+                return sync(scheduled);
+            }
+        });
+        return inFlight;
+    }
+
+    /**
+     * Runs one sync on the poller thread, schedules the next one and tells the listener.
+     * A scheduled sync always goes to the server, since its interval has passed.
+     */
+    private EventStore sync(boolean scheduled) throws IOException {
+        EventStore events = null;
+        IOException error = null;
+        long delay = -1;
+        try {
+            if (!cachedLoaded) {
+                cachedLoaded = true;
+                EventStore cached = loader.loadCached();
+                Listener current = listener;
+                if (cached != null && cached.size() > 0 && current != null) {
+                    current.onEventsLoaded(cached);
+                }
+            }
+            events = scheduled ? loader.sync(0) : loader.sync();
+        } catch (IOException e) {
+            error = e;
+        } catch (RuntimeException e) {
+            // For example a ClassCastException for a URL that is not HTTP; it fails this
+            // sync like any other error instead of ending the polling
+            error = new IOException("Sync failed", e);
+        } finally {
+            // Even an Error must not leave a sync in flight forever, or nothing would be
+            // scheduled again
+            delay = finishSync(events);
+        }
+
+        Listener current = listener;
+        if (current != null) {
+            if (error == null) {
+                current.onEventsLoaded(events);
+            } else {
+                current.onLoadFailed(error, delay);
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+        return events;
+    }
+
+    /**
+     * Ends the sync in flight, which failed if {@code events} is null, and schedules the
+     * next one while running. Returns the delay until the next sync, or -1 if none was
+     * scheduled.
+     */
+    private synchronized long finishSync(EventStore events) {
+        failureCount = events == null ? failureCount + 1 : 0;
+        inFlight = null;
+        if (!running) {
+            return -1;
+        }
+        long delay = nextDelayMillis(events, failureCount);
+        nextPoll = executor.schedule(poll, delay, TimeUnit.MILLISECONDS);
+        return delay;
+    }
+
+    /**
+     * Returns the time to wait before the next sync, given the earthquakes of the last
+     * successful sync and the number of syncs that failed since then.
+     */
+    long nextDelayMillis(EventStore events, int failures) {
+        if (failures > 0) {
+            return Math.min(MIN_BACKOFF_MILLIS << Math.min(failures - 1, 20), MAX_BACKOFF_MILLIS);
+        }
+        return hasUrgentEvents(events) ? urgentIntervalMillis : intervalMillis;
+    }
+
+    /**
+     * Returns whether an earthquake of the last {@link #URGENT_WINDOW_MILLIS} was strong or
+     * raised a tsunami alert. Only the recent rows are looked at, through the time index.
+     */
+    private boolean hasUrgentEvents(EventStore events) {
+        long since = clock.now() - URGENT_WINDOW_MILLIS;
+        int count = events.countTimeRange(since, Long.MAX_VALUE);
+        if (count == 0) {
+            return false;
+        }
+        int[] rows = new int[count];
+        events.timeRange(since, Long.MAX_VALUE, rows);
+        for (int row : rows) {
+            if (events.getTsunamiAlert(row) == 1 || events.getMagnitude(row) >= URGENT_MAGNITUDE) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.soonami;
+
+import java.util.Arrays;
+
+/**
+ * {@link EventRows} is an immutable snapshot of the earthquakes of an {@link EventStore},
+ * newest first, holding the text the event list shows for each of them: the title, the
+ * formatted date and the tsunami alert label.
+ *
+ * Snapshots are built on a background thread, so binding a row on the main thread only
+ * copies references. Building from the previous snapshot reuses the date and title of every
+ * event whose update time did not change, so a sync that brings a few new events only
+ * formats those, and a sync that changes nothing returns the previous snapshot itself.
+ * Once built, a snapshot is only read, so the main thread and the thread building the next
+ * snapshot can use it at the same time.
+ */
+public final class EventRows {
+
+    /** Snapshot of an empty store */
+    public static final EventRows EMPTY = new EventRows(0);
+
+    private final int size;
+    private final String[] titles;
+    private final String[] dates;
+    private final String[] alertLabels;
+    private final byte[] tsunamiAlerts;
+    private final String[] ids;
+    private final long[] updatedTimes;
+    private final long[] itemIds;
+
+    /**
+     * Rows with an event id, open-addressed by the hash of the id and at most half full,
+     * with -1 in empty slots, for finding an event of this snapshot in the next one. It is
+     * only read after the snapshot is built, so lookups can come from any thread.
+     */
+    private final int[] idTable;
+
+    /** Number of rows whose text was formatted for this snapshot rather than reused */
+    private int formattedCount;
+
+    private EventRows(int size) {
+        this.size = size;
+        titles = new String[size];
+        dates = new String[size];
+        alertLabels = new String[size];
+        tsunamiAlerts = new byte[size];
+        ids = new String[size];
+        updatedTimes = new long[size];
+        itemIds = new long[size];
+        idTable = new int[Integer.highestOneBit(Math.max(1, size) * 2 - 1) << 1];
+        Arrays.fill(idTable, -1);
+    }
+
+    /**
+     * Returns a snapshot of the given store, or {@code previous} if it already shows exactly
+     * the same events in the same order.
+     *
+     * @param events is the store to take the snapshot of; it is only read
+     * @param formatter formats the time of each earthquake
+     * @param labels holds the labels for an unknown tsunami alert, no alert and an alert,
+     *               in that order
+     * @param previous is the snapshot shown so far, or null if there is none
+     */
+    public static EventRows build(EventStore events, EventDateFormatter formatter,
+                                  String[] labels, EventRows previous) {
+        int size = events.size();
+        int[] order = new int[size];
+        events.latest(order);
+
+        EventRows rows = new EventRows(size);
+        StringBuilder text = new StringBuilder(64);
+        boolean unchanged = previous != null && previous.size == size;
+        for (int i = 0; i < size; i++) {
+            int row = order[i];
+            String id = events.getId(row);
+            long time = events.getTime(row);
+            long updated = events.getUpdated(row);
+            int tsunamiAlert = events.getTsunamiAlert(row);
+
+            int previousRow = previous != null ? previous.indexOf(id) : -1;
+            if (previousRow >= 0 && previous.updatedTimes[previousRow] == updated) {
+                // An event that was not updated kept its title too, and the store would only
+                // hand out a new copy of it
+                rows.dates[i] = previous.dates[previousRow];
+                rows.titles[i] = previous.titles[previousRow];
+            } else {
+                text.setLength(0);
+                formatter.format(time, text);
+                rows.dates[i] = text.toString();
+                rows.titles[i] = events.getTitle(row);
+                rows.formattedCount++;
+            }
+            if (previousRow != i) {
+                unchanged = false;
+            }
+
+            rows.tsunamiAlerts[i] = (byte) tsunamiAlert;
+            rows.alertLabels[i] =
+                    labels[tsunamiAlert == 0 || tsunamiAlert == 1 ? tsunamiAlert + 1 : 0];
+            rows.ids[i] = id;
+            rows.updatedTimes[i] = updated;
+            rows.itemIds[i] = id != null ? hash(id) : time;
+            if (id != null) {
+                rows.putId(id, i);
+            }
+        }
+        return unchanged && rows.formattedCount == 0 ? previous : rows;
+    }
+
+    /**
+     * Returns the number of earthquakes in the snapshot.
+     */
+    public int size() {
+        return size;
+    }
+
+    public String getTitle(int row) {
+        return titles[row];
+    }
+
+    /**
+     * Returns the formatted time of the given row.
+     */
+    public String getDate(int row) {
+        return dates[row];
+    }
+
+    public int getTsunamiAlert(int row) {
+        return tsunamiAlerts[row];
+    }
+
+    /**
+     * Returns the tsunami alert label of the given row, one of the labels the snapshot was
+     * built with.
+     */
+    public String getTsunamiLabel(int row) {
+        return alertLabels[row];
+    }
+
+    /**
+     * Returns the USGS event id of the given row, or null if it has none.
+     */
+    public String getId(int row) {
+        return ids[row];
+    }
+
+    /**
+     * Returns a number that identifies the event of the given row across snapshots, so a
+     * list can keep its scroll position on the same event when new ones are added above it.
+     */
+    public long getItemId(int row) {
+        return itemIds[row];
+    }
+
+    /**
+     * Returns how many rows were formatted for this snapshot instead of being reused from
+     * the previous one.
+     */
+    public int getFormattedCount() {
+        return formattedCount;
+    }
+
+    /**
+     * Returns the row holding the given event id, or -1 if there is none.
+     */
+    public int indexOf(String id) {
+        if (id == null) {
+            return -1;
+        }
+        int mask = idTable.length - 1;
+        for (int slot = spread(id.hashCode()) & mask; idTable[slot] >= 0;
+                slot = (slot + 1) & mask) {
+            int row = idTable[slot];
+            if (id.equals(ids[row])) {
+                return row;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Adds the given row to {@link #idTable} while the snapshot is built.
+     */
+    private void putId(String id, int row) {
+        int mask = idTable.length - 1;
+        int slot = spread(id.hashCode()) & mask;
+        while (idTable[slot] >= 0) {
+            slot = (slot + 1) & mask;
+        }
+        idTable[slot] = row;
+    }
+
+    /**
+     * Mixes the high bits of a hash code into the low ones, which pick the slot.
+     */
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Returns a 64-bit FNV-1a hash of the given event id.
+     */
+    private static long hash(String id) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < id.length(); i++) {
+            hash ^= id.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
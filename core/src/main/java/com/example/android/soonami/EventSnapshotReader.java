@@ -0,0 +1,311 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.soonami;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * {@link EventSnapshotReader} walks the records of a snapshot written by
+ * {@link EventSnapshotWriter}, usually straight from a memory-mapped file.
+ *
+ * {@link #next()} moves to the next record and only decodes what is needed to find the one
+ * after it: the varints and the title table. Strings are created when they are asked for,
+ * and each title of the table only once, so a scan that looks at times, alerts or
+ * coordinates allocates nothing per record. {@link #readInto(EventStore)} loads every
+ * record into a store.
+ */
+public final class EventSnapshotReader {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ByteBuffer buffer;
+
+    /** View of the same bytes that strings are copied out of, so {@link #buffer} stays put */
+    private final ByteBuffer strings;
+
+    /** Where the titles of the table are in the buffer, by title number */
+    private int[] titleOffsets = new int[64];
+    private int[] titleLengths = new int[64];
+
+    /** Titles of the table that were asked for, by title number */
+    private String[] titles = new String[64];
+    private int titleCount;
+
+    /** Offset of the tsunami alerts of the current block, and its records left to read */
+    private int tsunamiBitsOffset;
+    private int blockRemaining;
+    private int blockIndex;
+    private int blockEnd;
+
+    private boolean finished;
+    private byte[] scratch = new byte[64];
+
+    /** Fields of the current record; the strings and floats are read when asked for */
+    private int titleId = -1;
+    private int idOffset;
+    private int idLength;
+    private long time;
+    private long updated;
+    private int tsunamiAlert;
+    private int floatsOffset;
+
+    /**
+     * Returns a reader over the snapshot in the given file, which is memory-mapped rather
+     * than read.
+     */
+    public static EventSnapshotReader open(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            // The mapping stays valid after the file is closed
+            return new EventSnapshotReader(
+                    channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Constructs a new {@link EventSnapshotReader} over the snapshot that starts at the
+     * position of the given buffer. The buffer itself is not moved.
+     *
+     * @throws IOException if the buffer does not hold a snapshot of a known version
+     */
+    public EventSnapshotReader(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer.slice();
+        strings = this.buffer.duplicate();
+        if (this.buffer.remaining() < 8 || this.buffer.getInt() != EventSnapshotWriter.MAGIC) {
+            throw new IOException("Not an event snapshot");
+        }
+        int version = this.buffer.getInt();
+        if (version != EventSnapshotWriter.VERSION) {
+            throw new IOException("Unsupported event snapshot version " + version);
+        }
+    }
+
+    /**
+     * Moves to the next record and returns true, or returns false at the end of the
+     * snapshot.
+     *
+     * @throws IOException if the snapshot is truncated or corrupt
+     */
+    public boolean next() throws IOException {
+        if (finished) {
+            return false;
+        }
+        try {
+            if (blockRemaining == 0) {
+                if (buffer.position() != blockEnd && blockEnd != 0) {
+                    throw new IOException("Corrupt event snapshot block");
+                }
+                int count = (int) readVarint();
+                if (count == 0) {
+                    finished = true;
+                    return false;
+                }
+                int length = (int) readVarint();
+                if (count > EventSnapshotWriter.BLOCK_SIZE || length < 0
+                        || length > buffer.remaining()) {
+                    throw new IOException("Truncated event snapshot");
+                }
+                tsunamiBitsOffset = buffer.position();
+                blockEnd = tsunamiBitsOffset + length;
+                buffer.position(tsunamiBitsOffset + (count + 3) / 4);
+                blockRemaining = count;
+                blockIndex = 0;
+            }
+
+            int titleRef = (int) readVarint();
+            if (titleRef == 0) {
+                int length = (int) readVarint();
+                addTitle(buffer.position(), length);
+                buffer.position(buffer.position() + length);
+                titleId = titleCount - 1;
+            } else if (titleRef <= titleCount) {
+                titleId = titleRef - 1;
+            } else {
+                throw new IOException("Corrupt event snapshot title " + titleRef);
+            }
+            idLength = (int) readVarint() - 1;
+            idOffset = buffer.position();
+            if (idLength < -1) {
+                throw new IOException("Corrupt event snapshot id");
+            } else if (idLength > 0) {
+                buffer.position(idOffset + idLength);
+            }
+            time += unzigzag(readVarint());
+            updated = time + unzigzag(readVarint());
+            floatsOffset = buffer.position();
+            buffer.position(floatsOffset + 16);
+            if (buffer.position() > blockEnd) {
+                throw new IOException("Corrupt event snapshot block");
+            }
+
+            int bits = buffer.get(tsunamiBitsOffset + (blockIndex >> 2)) >> ((blockIndex & 3) * 2);
+            tsunamiAlert = (bits & 3) - 1;
+            blockIndex++;
+            blockRemaining--;
+            return true;
+        } catch (RuntimeException e) {
+            // Positions past the end of the buffer
+            throw new IOException("Truncated event snapshot", e);
+        }
+    }
+
+    /**
+     * Reads every remaining record into the given store, as {@link EventStore#put} would,
+     * and returns the number of records read.
+     */
+    public int readInto(EventStore store) throws IOException {
+        int count = 0;
+        while (next()) {
+            store.put(getId(), getTitle(), time, updated, tsunamiAlert, getMagnitude(),
+                    getLatitude(), getLongitude(), getDepth());
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the event id of the current record, or null if it has none.
+     */
+    public String getId() {
+        return idLength < 0 ? null : decode(idOffset, idLength);
+    }
+
+    /**
+     * Returns the title of the current record. The String is shared by every record with
+     * the same title.
+     */
+    public String getTitle() {
+        String title = titles[titleId];
+        if (title == null) {
+            title = decode(titleOffsets[titleId], titleLengths[titleId]);
+            titles[titleId] = title;
+        }
+        return title;
+    }
+
+    /**
+     * Returns the number of the title of the current record in the title table, which is
+     * the same for every record with the same title.
+     */
+    public int getTitleId() {
+        return titleId;
+    }
+
+    /**
+     * Returns the time of the current record (in milliseconds).
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * Returns the time the current record was last updated by USGS (in milliseconds).
+     */
+    public long getUpdated() {
+        return updated;
+    }
+
+    /**
+     * Returns 1 if the current record raised a tsunami alert, 0 if not, -1 if unknown.
+     */
+    public int getTsunamiAlert() {
+        return tsunamiAlert;
+    }
+
+    /**
+     * Returns the magnitude of the current record, or NaN if unknown.
+     */
+    public float getMagnitude() {
+        return buffer.getFloat(floatsOffset);
+    }
+
+    /**
+     * Returns the latitude of the current record, or NaN if unknown.
+     */
+    public float getLatitude() {
+        return buffer.getFloat(floatsOffset + 4);
+    }
+
+    /**
+     * Returns the longitude of the current record, or NaN if unknown.
+     */
+    public float getLongitude() {
+        return buffer.getFloat(floatsOffset + 8);
+    }
+
+    /**
+     * Returns the depth of the current record in kilometers, or NaN if unknown.
+     */
+    public float getDepth() {
+        return buffer.getFloat(floatsOffset + 12);
+    }
+
+    /**
+     * Returns the current record as an {@link Event}.
+     */
+    public Event getEvent() {
+        return new Event(getTitle(), time, tsunamiAlert, getMagnitude(), getLatitude(),
+                getLongitude(), getDepth());
+    }
+
+    private void addTitle(int offset, int length) throws IOException {
+        if (length < 0 || offset + length > buffer.limit()) {
+            throw new IOException("Truncated event snapshot");
+        }
+        if (titleCount == titleOffsets.length) {
+            titleOffsets = Arrays.copyOf(titleOffsets, titleCount * 2);
+            titleLengths = Arrays.copyOf(titleLengths, titleCount * 2);
+            titles = Arrays.copyOf(titles, titleCount * 2);
+        }
+        titleOffsets[titleCount] = offset;
+        titleLengths[titleCount] = length;
+        titleCount++;
+    }
+
+    private String decode(int offset, int length) {
+        if (length > scratch.length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        strings.position(offset);
+        strings.get(scratch, 0, length);
+        return new String(scratch, 0, length, UTF_8);
+    }
+
+    private long readVarint() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("Corrupt event snapshot varint");
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
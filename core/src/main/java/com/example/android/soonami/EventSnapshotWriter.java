@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.soonami;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * {@link EventSnapshotWriter} writes earthquakes one at a time in the compact binary snapshot
+ * format that {@link EventSnapshotReader} reads back. Nothing needs to be known up front, so
+ * events can be exported while they are parsed.
+ *
+ * A snapshot is the magic number and {@link #VERSION}, followed by blocks of up to
+ * {@link #BLOCK_SIZE} records and a record count of 0 that ends the snapshot. A block is its
+ * record count and byte length as varints, the tsunami alerts of its records packed two bits
+ * each, and then the records:
+ *
+ * - the title, as 1 + its number in the title table, or 0 followed by a title that is new to
+ *   the table and gets the next number
+ * - the event id, as 1 + its UTF-8 length and bytes, or 0 for no id
+ * - the time, as the zigzag varint difference to the time of the previous record
+ * - the update time, as the zigzag varint difference to the time of the record
+ * - the magnitude, latitude, longitude and depth as big-endian floats
+ *
+ * Feeds are ordered by time and titles repeat as events are revised, so a typical record
+ * takes a few bytes besides its id and floats.
+ */
+public final class EventSnapshotWriter implements Closeable {
+
+    /** Magic number at the start of every snapshot ("SQES") */
+    static final int MAGIC = 0x53514553;
+
+    /** Version of the snapshot layout; readers reject any other version */
+    static final int VERSION = 1;
+
+    /** Largest number of records in one block */
+    static final int BLOCK_SIZE = 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final OutputStream out;
+
+    /** Numbers of the titles written so far */
+    private final HashMap<String, Integer> titleIds = new HashMap<>();
+
+    /** Tsunami alerts of the records in the current block, plus one, two bits each */
+    private final byte[] tsunamiBits = new byte[BLOCK_SIZE / 4];
+
+    /** Records of the current block */
+    private byte[] records = new byte[BLOCK_SIZE * 32];
+    private int recordsLength;
+    private int blockCount;
+
+    /** Time of the last record written, which the next time is stored relative to */
+    private long previousTime;
+
+    private boolean finished;
+
+    /**
+     * Constructs a new {@link EventSnapshotWriter} and writes the snapshot header to the
+     * given stream. The records are buffered a block at a time, so the stream need not be
+     * buffered.
+     */
+    public EventSnapshotWriter(OutputStream out) throws IOException {
+        this.out = out;
+        byte[] header = new byte[8];
+        putInt(header, 0, MAGIC);
+        putInt(header, 4, VERSION);
+        out.write(header);
+    }
+
+    /**
+     * Writes the given {@link Event}, which has no event id and was last updated when it
+     * happened.
+     */
+    public void add(Event event) throws IOException {
+        add(null, event.title, event.time, event.time, event.tsunamiAlert, event.magnitude,
+                event.latitude, event.longitude, event.depth);
+    }
+
+    /**
+     * Writes every row of the given store, in row order.
+     */
+    public void addAll(EventStore events) throws IOException {
+        for (int row = 0; row < events.size(); row++) {
+            add(events.getId(row), events.getTitle(row), events.getTime(row),
+                    events.getUpdated(row), events.getTsunamiAlert(row), events.getMagnitude(row),
+                    events.getLatitude(row), events.getLongitude(row), events.getDepth(row));
+        }
+    }
+
+    /**
+     * Writes one earthquake, with the fields of {@link EventStore#put}. A null title is
+     * written as the empty String, as the store keeps it.
+     */
+    public void add(String id, String title, long time, long updated, int tsunamiAlert,
+                    float magnitude, float latitude, float longitude, float depth)
+            throws IOException {
+        if (finished) {
+            throw new IllegalStateException("Snapshot already finished");
+        }
+        if (title == null) {
+            title = "";
+        }
+        ensureCapacity(5);
+        Integer titleId = titleIds.get(title);
+        if (titleId != null) {
+            putVarint(titleId + 1);
+        } else {
+            titleIds.put(title, titleIds.size());
+            putVarint(0);
+            putString(title);
+        }
+        if (id == null) {
+            putVarint(0);
+        } else {
+            byte[] bytes = id.getBytes(UTF_8);
+            ensureCapacity(5 + bytes.length);
+            putVarint(bytes.length + 1);
+            System.arraycopy(bytes, 0, records, recordsLength, bytes.length);
+            recordsLength += bytes.length;
+        }
+        ensureCapacity(2 * 10 + 16);
+        putVarint(zigzag(time - previousTime));
+        putVarint(zigzag(updated - time));
+        putInt(records, recordsLength, Float.floatToRawIntBits(magnitude));
+        putInt(records, recordsLength + 4, Float.floatToRawIntBits(latitude));
+        putInt(records, recordsLength + 8, Float.floatToRawIntBits(longitude));
+        putInt(records, recordsLength + 12, Float.floatToRawIntBits(depth));
+        recordsLength += 16;
+        previousTime = time;
+
+        int alert = tsunamiAlert < 0 ? 0 : (tsunamiAlert == 0 ? 1 : 2);
+        tsunamiBits[blockCount >> 2] |= alert << ((blockCount & 3) * 2);
+        if (++blockCount == BLOCK_SIZE) {
+            flushBlock();
+        }
+    }
+
+    /**
+     * Writes the records still buffered and the end of the snapshot, without closing the
+     * stream. Nothing can be added afterwards.
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        flushBlock();
+        out.write(0);
+        out.flush();
+        finished = true;
+    }
+
+    /**
+     * Finishes the snapshot and closes the stream.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void flushBlock() throws IOException {
+        if (blockCount == 0) {
+            return;
+        }
+        int bitsLength = (blockCount + 3) / 4;
+        byte[] header = new byte[10];
+        int headerLength = putVarint(header, 0, blockCount);
+        headerLength = putVarint(header, headerLength, bitsLength + recordsLength);
+        out.write(header, 0, headerLength);
+        out.write(tsunamiBits, 0, bitsLength);
+        out.write(records, 0, recordsLength);
+        Arrays.fill(tsunamiBits, (byte) 0);
+        recordsLength = 0;
+        blockCount = 0;
+    }
+
+    private void putString(String value) {
+        byte[] bytes = value.getBytes(UTF_8);
+        ensureCapacity(5 + bytes.length);
+        putVarint(bytes.length);
+        System.arraycopy(bytes, 0, records, recordsLength, bytes.length);
+        recordsLength += bytes.length;
+    }
+
+    private void putVarint(long value) {
+        recordsLength = putVarint(records, recordsLength, value);
+    }
+
+    private void ensureCapacity(int extra) {
+        if (recordsLength + extra > records.length) {
+            records = Arrays.copyOf(records, Math.max(records.length * 2, recordsLength + extra));
+        }
+    }
+
+    /**
+     * Writes the given value seven bits at a time, lowest first, with the high bit set on
+     * every byte but the last, and returns the offset after it.
+     */
+    private static int putVarint(byte[] bytes, int offset, long value) {
+        while ((value & ~0x7FL) != 0) {
+            bytes[offset++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        bytes[offset++] = (byte) value;
+        return offset;
+    }
+
+    /**
+     * Maps signed values to unsigned ones so that small negative values stay short as varints.
+     */
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static void putInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+}
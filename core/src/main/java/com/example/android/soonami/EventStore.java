@@ -0,0 +1,416 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.soonami;
+
+import java.util.Arrays;
+
+/**
+ * {@link EventStore} keeps every earthquake of a feed in memory, one primitive array per
+ * field, instead of one {@link Event} object per earthquake. A row costs about 45 bytes
+ * plus the UTF-8 bytes of its event id and its share of the title {@link StringPool}, so
+ * 100,000 events fit in about ten megabytes, well below a list of as many {@link Event}s.
+ *
+ * Rows that carry a USGS event id can be merged with {@link #put}: a newer version of an
+ * event overwrites the row that holds the older one, which is how incremental updates are
+ * applied.
+ *
+ * Rows are numbered in the order they were added. Queries fill a caller-supplied int array
+ * with row numbers, newest first, so they do not allocate once the time index is built.
+ * The time index is rebuilt lazily by the first query after rows were added.
+ *
+ * This class is not thread-safe. Fill it on a background thread and hand it over to the
+ * UI thread once it is complete, the same way an AsyncTask hands over its result.
+ */
+public final class EventStore {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final StringPool titles = new StringPool();
+
+    /** Event ids; the pool id of a row's event id is kept in {@link #idIds} */
+    private final StringPool ids = new StringPool();
+
+    /** Row holding each pooled event id, indexed by pool id */
+    private int[] rowForId = new int[INITIAL_CAPACITY];
+
+    private int[] titleIds = new int[INITIAL_CAPACITY];
+    private int[] idIds = new int[INITIAL_CAPACITY];
+    private long[] times = new long[INITIAL_CAPACITY];
+    private long[] updatedTimes = new long[INITIAL_CAPACITY];
+    private byte[] tsunamiAlerts = new byte[INITIAL_CAPACITY];
+    private float[] magnitudes = new float[INITIAL_CAPACITY];
+    private float[] latitudes = new float[INITIAL_CAPACITY];
+    private float[] longitudes = new float[INITIAL_CAPACITY];
+    private float[] depths = new float[INITIAL_CAPACITY];
+    private int size;
+
+    /** Row numbers ordered by time, newest first. Only valid while {@link #orderValid} is set */
+    private int[] order = new int[INITIAL_CAPACITY];
+    private boolean orderValid = true;
+
+    /** Largest update time of any row, or 0 if the store is empty */
+    private long newestUpdated;
+
+    /**
+     * Adds an earthquake that has no event id to the store and returns its row number.
+     *
+     * @param title is the title of the earthquake event
+     * @param time is the time the earthquake happened (in milliseconds)
+     * @param tsunamiAlert is 1 if a tsunami alert was issued, 0 if not, -1 if unknown
+     * @param magnitude is the magnitude of the earthquake, or NaN if unknown
+     * @param latitude is the latitude of the epicenter, or NaN if unknown
+     * @param longitude is the longitude of the epicenter, or NaN if unknown
+     * @param depth is the depth of the hypocenter in kilometers, or NaN if unknown
+     */
+    public int add(String title, long time, int tsunamiAlert, float magnitude,
+                   float latitude, float longitude, float depth) {
+        return put(null, title, time, time, tsunamiAlert, magnitude, latitude, longitude, depth);
+    }
+
+    /**
+     * Adds an earthquake to the store, or updates the row that already holds the same event
+     * id, and returns its row number. A version that is older than the one already stored
+     * is ignored.
+     *
+     * @param id is the USGS event id, or null if the event has none
+     * @param title is the title of the earthquake event
+     * @param time is the time the earthquake happened (in milliseconds)
+     * @param updated is the time the event was last updated by USGS (in milliseconds)
+     * @param tsunamiAlert is 1 if a tsunami alert was issued, 0 if not, -1 if unknown
+     * @param magnitude is the magnitude of the earthquake, or NaN if unknown
+     * @param latitude is the latitude of the epicenter, or NaN if unknown
+     * @param longitude is the longitude of the epicenter, or NaN if unknown
+     * @param depth is the depth of the hypocenter in kilometers, or NaN if unknown
+     */
+    public int put(String id, String title, long time, long updated, int tsunamiAlert,
+                   float magnitude, float latitude, float longitude, float depth) {
+        int row = id == null ? -1 : indexOf(id);
+        if (row >= 0 && updated < updatedTimes[row]) {
+            return row;
+        }
+        if (row < 0) {
+            if (size == times.length) {
+                grow(size * 2);
+            }
+            row = size++;
+            idIds[row] = -1;
+            if (id != null) {
+                int idId = ids.intern(id);
+                if (idId == rowForId.length) {
+                    rowForId = Arrays.copyOf(rowForId, idId * 2);
+                }
+                rowForId[idId] = row;
+                idIds[row] = idId;
+            }
+        }
+        titleIds[row] = titles.intern(title);
+        times[row] = time;
+        updatedTimes[row] = updated;
+        tsunamiAlerts[row] = (byte) tsunamiAlert;
+        magnitudes[row] = magnitude;
+        latitudes[row] = latitude;
+        longitudes[row] = longitude;
+        depths[row] = depth;
+        newestUpdated = Math.max(newestUpdated, updated);
+        orderValid = false;
+        return row;
+    }
+
+    /**
+     * Puts every row of the given store into this one, in row order, merging rows that
+     * share an event id as {@link #put} does.
+     */
+    public void putAll(EventStore other) {
+        for (int row = 0; row < other.size; row++) {
+            put(other.getId(row), other.getTitle(row), other.times[row], other.updatedTimes[row],
+                    other.tsunamiAlerts[row], other.magnitudes[row], other.latitudes[row],
+                    other.longitudes[row], other.depths[row]);
+        }
+    }
+
+    /**
+     * Returns the row holding the given event id, or -1 if there is none.
+     */
+    public int indexOf(String id) {
+        int idId = ids.indexOf(id);
+        return idId < 0 ? -1 : rowForId[idId];
+    }
+
+    /**
+     * Adds the given {@link Event}.
+     */
+    public int add(Event event) {
+        return add(event.title, event.time, event.tsunamiAlert, event.magnitude, event.latitude,
+                event.longitude, event.depth);
+    }
+
+    /**
+     * Returns the number of earthquakes in the store.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Removes every earthquake from the store, keeping the arrays for reuse.
+     */
+    public void clear() {
+        size = 0;
+        titles.clear();
+        ids.clear();
+        newestUpdated = 0;
+        orderValid = true;
+    }
+
+    /**
+     * Returns the title of the given row, as a new String on every call.
+     */
+    public String getTitle(int row) {
+        checkRow(row);
+        return titles.get(titleIds[row]);
+    }
+
+    /**
+     * Returns the USGS event id of the given row, as a new String on every call, or null if
+     * it has none.
+     */
+    public String getId(int row) {
+        checkRow(row);
+        return idIds[row] < 0 ? null : ids.get(idIds[row]);
+    }
+
+    public long getTime(int row) {
+        checkRow(row);
+        return times[row];
+    }
+
+    public long getUpdated(int row) {
+        checkRow(row);
+        return updatedTimes[row];
+    }
+
+    /**
+     * Returns the largest update time of any row, or 0 if the store is empty. This is the
+     * high-water mark for asking USGS only for events that changed since the last sync.
+     */
+    public long getNewestUpdated() {
+        return newestUpdated;
+    }
+
+    public int getTsunamiAlert(int row) {
+        checkRow(row);
+        return tsunamiAlerts[row];
+    }
+
+    public float getMagnitude(int row) {
+        checkRow(row);
+        return magnitudes[row];
+    }
+
+    public float getLatitude(int row) {
+        checkRow(row);
+        return latitudes[row];
+    }
+
+    public float getLongitude(int row) {
+        checkRow(row);
+        return longitudes[row];
+    }
+
+    /**
+     * Returns the depth of the given row's hypocenter in kilometers, or NaN if unknown.
+     */
+    public float getDepth(int row) {
+        checkRow(row);
+        return depths[row];
+    }
+
+    /**
+     * Returns the id of the given row's title in {@link #getTitlePool()}.
+     */
+    int getTitleId(int row) {
+        checkRow(row);
+        return titleIds[row];
+    }
+
+    /**
+     * Returns the pool that holds the titles of this store.
+     */
+    StringPool getTitlePool() {
+        return titles;
+    }
+
+    /**
+     * Returns a new {@link Event} for the given row, for code that still works with
+     * single events.
+     */
+    public Event getEvent(int row) {
+        return new Event(getTitle(row), getTime(row), getTsunamiAlert(row), getMagnitude(row),
+                getLatitude(row), getLongitude(row), getDepth(row));
+    }
+
+    /**
+     * Fills {@code out} with the rows of the newest earthquakes, newest first, and returns
+     * how many were written. At most {@code out.length} rows are written.
+     */
+    public int latest(int[] out) {
+        ensureOrder();
+        int count = Math.min(out.length, size);
+        System.arraycopy(order, 0, out, 0, count);
+        return count;
+    }
+
+    /**
+     * Fills {@code out} with the rows of earthquakes that had a tsunami alert, newest first,
+     * and returns how many were written. At most {@code out.length} rows are written.
+     */
+    public int tsunamiOnly(int[] out) {
+        ensureOrder();
+        int count = 0;
+        for (int i = 0; i < size && count < out.length; i++) {
+            int row = order[i];
+            if (tsunamiAlerts[row] == 1) {
+                out[count++] = row;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Fills {@code out} with the rows of earthquakes that happened at or after
+     * {@code startTime} and before {@code endTime}, newest first, and returns how many were
+     * written. At most {@code out.length} rows are written.
+     */
+    public int timeRange(long startTime, long endTime, int[] out) {
+        ensureOrder();
+        int from = firstOlderThan(endTime);
+        int count = Math.min(firstOlderThan(startTime) - from, out.length);
+        if (count <= 0) {
+            return 0;
+        }
+        System.arraycopy(order, from, out, 0, count);
+        return count;
+    }
+
+    /**
+     * Returns how many earthquakes happened at or after {@code startTime} and before
+     * {@code endTime}, so callers can size the array they pass to
+     * {@link #timeRange(long, long, int[])}.
+     */
+    public int countTimeRange(long startTime, long endTime) {
+        ensureOrder();
+        return Math.max(0, firstOlderThan(startTime) - firstOlderThan(endTime));
+    }
+
+    /**
+     * Returns the first position in {@link #order} whose earthquake happened before
+     * the given time.
+     */
+    private int firstOlderThan(long time) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (times[order[mid]] < time) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Rebuilds the time index if rows were added since it was last built. USGS responses are
+     * already ordered by time, so the common case is a single pass with no sorting at all.
+     */
+    private void ensureOrder() {
+        if (orderValid) {
+            return;
+        }
+        boolean descending = true;
+        boolean ascending = true;
+        for (int row = 1; row < size && (descending || ascending); row++) {
+            descending &= times[row] <= times[row - 1];
+            ascending &= times[row] >= times[row - 1];
+        }
+        if (descending) {
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+        } else if (ascending) {
+            for (int i = 0; i < size; i++) {
+                order[i] = size - 1 - i;
+            }
+        } else {
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            mergeSortOrder();
+        }
+        orderValid = true;
+    }
+
+    /**
+     * Sorts {@link #order} newest first with a bottom-up merge sort, which is stable. The
+     * scratch array is only needed while sorting, so the store does not keep it.
+     */
+    private void mergeSortOrder() {
+        int[] src = order;
+        int[] dst = new int[order.length];
+        for (int width = 1; width < size; width *= 2) {
+            for (int low = 0; low < size; low += 2 * width) {
+                int mid = Math.min(low + width, size);
+                int high = Math.min(low + 2 * width, size);
+                int i = low;
+                int j = mid;
+                int k = low;
+                while (i < mid && j < high) {
+                    dst[k++] = times[src[j]] > times[src[i]] ? src[j++] : src[i++];
+                }
+                while (i < mid) {
+                    dst[k++] = src[i++];
+                }
+                while (j < high) {
+                    dst[k++] = src[j++];
+                }
+            }
+            int[] swap = src;
+            src = dst;
+            dst = swap;
+        }
+        order = src;
+    }
+
+    private void grow(int capacity) {
+        titleIds = Arrays.copyOf(titleIds, capacity);
+        idIds = Arrays.copyOf(idIds, capacity);
+        times = Arrays.copyOf(times, capacity);
+        updatedTimes = Arrays.copyOf(updatedTimes, capacity);
+        tsunamiAlerts = Arrays.copyOf(tsunamiAlerts, capacity);
+        magnitudes = Arrays.copyOf(magnitudes, capacity);
+        latitudes = Arrays.copyOf(latitudes, capacity);
+        longitudes = Arrays.copyOf(longitudes, capacity);
+        depths = Arrays.copyOf(depths, capacity);
+        order = new int[capacity];
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+        }
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.soonami;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * {@link EventStreamParser} reads a USGS GeoJSON response and hands out one {@link Event}
+ * per feature, as the bytes arrive. Only the "features" array and the id, title, time,
+ * update time, tsunami, magnitude, coordinates and depth of each feature are decoded; everything
+ * else is skipped. Callers that only need the
+ * first earthquake can stop after the first {@link #next()} call and never read the rest
+ * of the response, while callers that want the whole feed can use {@link #readInto(EventStore)}.
+ */
+public final class EventStreamParser implements Closeable {
+
+    private final JsonStreamReader reader;
+
+    /** True once the reader is positioned inside the "features" array */
+    private boolean inFeatures;
+
+    /** True once there are no more features to read */
+    private boolean finished;
+
+    /** Fields of the feature that was read last */
+    private String id;
+    private String title;
+    private long time;
+    private long updated;
+    private int tsunamiAlert;
+    private float magnitude;
+    private float latitude;
+    private float longitude;
+    private float depth;
+
+    /**
+     * Constructs a new {@link EventStreamParser} over the given UTF-8 encoded GeoJSON stream.
+     */
+    public EventStreamParser(InputStream inputStream) {
+        reader = new JsonStreamReader(inputStream);
+    }
+
+    /**
+     * Constructs a new {@link EventStreamParser} that reads through the given buffer, such as
+     * one lent out by {@link HttpTransport#acquireBuffer()}.
+     */
+    public EventStreamParser(InputStream inputStream, byte[] buffer) {
+        reader = new JsonStreamReader(inputStream, buffer);
+    }
+
+    /**
+     * Return the first {@link Event} in the given GeoJSON stream, or null if it has no features.
+     */
+    public static Event readFirstEvent(InputStream inputStream) throws IOException {
+        return new EventStreamParser(inputStream).next();
+    }
+
+    /**
+     * Returns the next earthquake in the response, or null once all features have been read.
+     */
+    public Event next() throws IOException {
+        if (finished) {
+            return null;
+        }
+        if (!inFeatures && !seekFeatures()) {
+            finished = true;
+            return null;
+        }
+        if (!reader.hasNext()) {
+            reader.endArray();
+            finishDocument();
+            return null;
+        }
+        readFeature();
+        return new Event(title, time, tsunamiAlert, magnitude, latitude, longitude, depth);
+    }
+
+    /**
+     * Reads every remaining feature straight into the given {@link EventStore}, without
+     * creating an {@link Event} object for any of them. Features whose event id is already
+     * in the store update that row instead of adding a new one. Returns the number of
+     * features read.
+     */
+    public int readInto(EventStore store) throws IOException {
+        if (finished) {
+            return 0;
+        }
+        if (!inFeatures && !seekFeatures()) {
+            finished = true;
+            return 0;
+        }
+        int count = 0;
+        while (reader.hasNext()) {
+            readFeature();
+            store.put(id, title, time, updated, tsunamiAlert, magnitude, latitude, longitude,
+                    depth);
+            count++;
+        }
+        reader.endArray();
+        finishDocument();
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        finished = true;
+        reader.close();
+    }
+
+    /**
+     * Skips the top-level properties up to the start of the "features" array.
+     * Returns false if the response has no such array.
+     */
+    private boolean seekFeatures() throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if ("features".equals(reader.nextName())
+                    && reader.peek() == JsonStreamReader.Token.BEGIN_ARRAY) {
+                reader.beginArray();
+                inFeatures = true;
+                return true;
+            }
+            reader.skipValue();
+        }
+        reader.endObject();
+        expectEndOfDocument();
+        return false;
+    }
+
+    /**
+     * Skips the top-level properties after the "features" array, such as "bbox", and
+     * checks that nothing follows the response object.
+     */
+    private void finishDocument() throws IOException {
+        finished = true;
+        while (reader.hasNext()) {
+            reader.nextName();
+            reader.skipValue();
+        }
+        reader.endObject();
+        expectEndOfDocument();
+    }
+
+    private void expectEndOfDocument() throws IOException {
+        if (reader.peek() != JsonStreamReader.Token.END_DOCUMENT) {
+            throw new IOException("Unexpected content after the JSON response");
+        }
+    }
+
+    /**
+     * Reads the next feature into the fields of this parser.
+     */
+    private void readFeature() throws IOException {
+        id = null;
+        title = null;
+        time = 0;
+        updated = 0;
+        tsunamiAlert = -1;
+        magnitude = Float.NaN;
+        latitude = Float.NaN;
+        longitude = Float.NaN;
+        depth = Float.NaN;
+        boolean hasProperties = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("properties".equals(name)
+                    && reader.peek() == JsonStreamReader.Token.BEGIN_OBJECT) {
+                hasProperties = true;
+                readProperties();
+            } else if ("geometry".equals(name)
+                    && reader.peek() == JsonStreamReader.Token.BEGIN_OBJECT) {
+                readGeometry();
+            } else if ("id".equals(name) && reader.peek() == JsonStreamReader.Token.STRING) {
+                id = reader.nextString();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (!hasProperties) {
+            throw new IOException("Feature has no properties in JSON response");
+        }
+        if (updated == 0) {
+            updated = time;
+        }
+    }
+
+    private void readProperties() throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonStreamReader.Token.NULL) {
+                reader.skipValue();
+            } else if ("title".equals(name)) {
+                title = reader.nextString();
+            } else if ("time".equals(name)) {
+                time = reader.nextLong();
+            } else if ("updated".equals(name)) {
+                updated = reader.nextLong();
+            } else if ("tsunami".equals(name)) {
+                tsunamiAlert = reader.nextInt();
+            } else if ("mag".equals(name)) {
+                magnitude = (float) reader.nextDouble();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    /**
+     * Reads the longitude, latitude and depth out of a GeoJSON point, which is stored as
+     * "coordinates": [longitude, latitude, depth].
+     */
+    private void readGeometry() throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!"coordinates".equals(reader.nextName())
+                    || reader.peek() != JsonStreamReader.Token.BEGIN_ARRAY) {
+                reader.skipValue();
+                continue;
+            }
+            reader.beginArray();
+            for (int i = 0; reader.hasNext(); i++) {
+                if (i < 3 && reader.peek() == JsonStreamReader.Token.NUMBER) {
+                    float value = (float) reader.nextDouble();
+                    if (i == 0) {
+                        longitude = value;
+                    } else if (i == 1) {
+                        latitude = value;
+                    } else {
+                        depth = value;
+                    }
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endArray();
+        }
+        reader.endObject();
+    }
+}
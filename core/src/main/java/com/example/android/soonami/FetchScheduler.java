@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.soonami;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link FetchScheduler} downloads a large USGS query as several smaller shards in parallel,
+ * on a thread pool of fixed size, and merges the results into one {@link EventStore}.
+ *
+ * Shards are merged in the order they were given, and events that come back from more than
+ * one shard (for example one that sits exactly on a shard boundary) are kept once, by event
+ * id. {@link #cancel()} aborts every download in flight, which {@link EventLoader#cancel()}
+ * uses when polling stops so a long first download does not go on in the background.
+ */
+public final class FetchScheduler {
+
+    private final HttpTransport transport;
+    private final ThreadPoolExecutor executor;
+
+    /** Requests of the downloads in flight, so {@link #cancel()} can abort them */
+    private final Set<HttpTransport.Call> activeCalls = new HashSet<>();
+
+    /** Futures of the downloads in flight */
+    private final List<Future<EventStore>> activeFutures = new ArrayList<>();
+
+    /**
+     * Constructs a new {@link FetchScheduler}.
+     *
+     * @param transport makes the requests
+     * @param threadCount is the largest number of shards downloaded at the same time
+     */
+    public FetchScheduler(HttpTransport transport, int threadCount) {
+        this.transport = transport;
+        executor = new ThreadPoolExecutor(threadCount, threadCount, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "FetchScheduler");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Splits a USGS query into shards that each cover an equal part of the given time range,
+     * newest first, so that merging them in order keeps the events ordered by time.
+     *
+     * The newest shard has no endtime, so it also takes in the events after the end of the
+     * range. Shards split once can then be fetched again later, after a failed download,
+     * without missing what happened in between.
+     *
+     * @param queryUrl is the USGS query without starttime and endtime parameters
+     * @param startTime is the start of the time range (in milliseconds)
+     * @param endTime is where the newest shard starts to be open-ended (in milliseconds),
+     *                usually the current time
+     * @param shardCount is the number of shards to split the range into
+     */
+    public static List<URL> splitByTime(String queryUrl, long startTime, long endTime,
+                                        int shardCount) throws MalformedURLException {
+        List<URL> shards = new ArrayList<>(shardCount);
+        long width = Math.max(1, (endTime - startTime + shardCount - 1) / shardCount);
+        for (long shardEnd = endTime; shardEnd > startTime; shardEnd -= width) {
+            long shardStart = Math.max(startTime, shardEnd - width);
+            String shard = queryUrl + "&starttime=" + EventLoader.formatQueryTime(shardStart);
+            if (shardEnd != endTime) {
+                shard += "&endtime=" + EventLoader.formatQueryTime(shardEnd);
+            }
+            shards.add(new URL(shard));
+        }
+        return shards;
+    }
+
+    /**
+     * Downloads and parses the given shards in parallel and returns their events merged in
+     * shard order. If any shard fails the others are cancelled and the failure is thrown.
+     */
+    public EventStore fetchAll(List<URL> shards) throws IOException {
+        List<Future<EventStore>> futures = new ArrayList<>(shards.size());
+        synchronized (this) {
+            for (final URL shard : shards) {
+                futures.add(executor.submit(new Callable<EventStore>() {
+                    @Override
+                    public EventStore call() throws IOException {
+                        return fetchShard(shard);
+                    }
+                }));
+            }
+            activeFutures.addAll(futures);
+        }
+
+        try {
+            EventStore events = new EventStore();
+            for (Future<EventStore> future : futures) {
+                events.putAll(future.get());
+            }
+            return events;
+        } catch (InterruptedException e) {
+            cancel(futures);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Fetch was interrupted");
+        } catch (CancellationException e) {
+            cancel(futures);
+            throw new InterruptedIOException("Fetch was cancelled");
+        } catch (ExecutionException e) {
+            cancel(futures);
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Problem fetching a shard", cause);
+        } finally {
+            synchronized (this) {
+                activeFutures.removeAll(futures);
+            }
+        }
+    }
+
+    /**
+     * Cancels every download in flight. Callers blocked in {@link #fetchAll} get an
+     * {@link InterruptedIOException}. The scheduler can still be used afterwards.
+     */
+    public synchronized void cancel() {
+        for (Future<EventStore> future : activeFutures) {
+            future.cancel(true);
+        }
+        // Interrupting a thread does not stop a blocking socket read, disconnecting does,
+        // including while a shard still waits for its response code
+        for (HttpTransport.Call call : activeCalls) {
+            call.abort();
+        }
+    }
+
+    /**
+     * Cancels every download in flight and stops the threads of the scheduler.
+     */
+    public void shutdown() {
+        cancel();
+        executor.shutdownNow();
+    }
+
+    private void cancel(List<Future<EventStore>> futures) {
+        for (Future<EventStore> future : futures) {
+            future.cancel(true);
+        }
+    }
+
+    private EventStore fetchShard(URL url) throws IOException {
+        HttpTransport.Call call = new HttpTransport.Call();
+        synchronized (this) {
+            // cancel() holds the same lock, so a shard it missed here was already interrupted
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("Fetch was cancelled");
+            }
+            activeCalls.add(call);
+        }
+        try {
+            HttpTransport.Response response = transport.get(url, null, null, call);
+            try {
+                if (response.code != HttpURLConnection.HTTP_OK) {
+                    throw new IOException("Error response code: " + response.code);
+                }
+                EventStore events = new EventStore();
+                EventLoader.readEvents(transport, response, events);
+                return events;
+            } catch (IOException e) {
+                // Don't spend time draining a response that failed or was cancelled
+                response.abort();
+                throw e;
+            } finally {
+                response.close();
+            }
+        } finally {
+            synchronized (this) {
+                activeCalls.remove(call);
+            }
+        }
+    }
+}
@@ -0,0 +1,350 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.soonami;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * {@link HttpTransport} makes the GET requests of the app. Compared to opening a bare
+ * {@link HttpURLConnection} and calling {@link HttpURLConnection#disconnect()} afterwards:
+ *
+ * - it asks for gzip and unpacks the response itself, which shrinks USGS GeoJSON several times
+ * - it reads every response to the end and closes it without disconnecting, so the platform
+ *   keeps the socket alive and the next request to the same host skips the TCP and TLS
+ *   handshakes
+ * - it lends out read buffers from a small pool, so parsing one response after another does
+ *   not allocate a new buffer each time
+ *
+ * The transport is thread-safe and meant to be shared by everything that talks to USGS. It
+ * reports the time to each response code, the time spent reading each body, the bytes read
+ * and the response codes to its {@link PipelineMetrics}.
+ */
+public final class HttpTransport {
+
+    /** Size of the buffers handed out by {@link #acquireBuffer()} */
+    public static final int BUFFER_SIZE = 8192;
+
+    /** Largest number of idle buffers kept in the pool */
+    private static final int MAX_POOLED_BUFFERS = 8;
+
+    /** Largest unread remainder drained on close to keep a connection reusable */
+    private static final long MAX_DRAIN_BYTES = 256 * 1024;
+
+    private final ArrayDeque<byte[]> bufferPool = new ArrayDeque<>();
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final PipelineMetrics metrics;
+
+    /**
+     * Constructs a new {@link HttpTransport} that records no {@link PipelineMetrics}.
+     */
+    public HttpTransport() {
+        this(PipelineMetrics.DISABLED);
+    }
+
+    /**
+     * Constructs a new {@link HttpTransport} that records its requests in the given metrics.
+     */
+    public HttpTransport(PipelineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * {@link Response} is the answer to one request. Its body must be closed once it has
+     * been read, which hands the connection back for reuse.
+     */
+    public static final class Response implements Closeable {
+
+        /** HTTP status code of the response */
+        public final int code;
+
+        /** ETag header of the response, or null if there was none */
+        public final String etag;
+
+        /** Last-Modified header of the response, or null if there was none */
+        public final String lastModified;
+
+        /** Body of the response; a 200 body is decompressed, other bodies are only drained */
+        public final InputStream body;
+
+        private final HttpURLConnection connection;
+        private final PipelineMetrics metrics;
+
+        /** Stream that times the reads from the connection, or null if there is no body */
+        private final CountingInputStream counted;
+
+        private boolean closed;
+
+        Response(HttpURLConnection connection, InputStream body, PipelineMetrics metrics,
+                 CountingInputStream counted) throws IOException {
+            this.connection = connection;
+            this.metrics = metrics;
+            this.counted = counted;
+            this.code = connection.getResponseCode();
+            this.etag = connection.getHeaderField("ETag");
+            this.lastModified = connection.getHeaderField("Last-Modified");
+            this.body = body;
+        }
+
+        /**
+         * Drops the connection immediately, from any thread. A read blocked on the body
+         * fails with an {@link IOException}; the connection is not reused.
+         */
+        public void abort() {
+            connection.disconnect();
+        }
+
+        /**
+         * Reads whatever is left of the body, so the connection can carry the next request,
+         * and closes it. Very large remainders are not worth reading and drop the
+         * connection instead.
+         */
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                long drained = 0;
+                while (drained < MAX_DRAIN_BYTES) {
+                    long skipped = body.skip(MAX_DRAIN_BYTES - drained);
+                    if (skipped > 0) {
+                        drained += skipped;
+                    } else if (body.read() == -1) {
+                        body.close();
+                        recordTransfer();
+                        return;
+                    } else {
+                        drained++;
+                    }
+                }
+                connection.disconnect();
+            } catch (IOException e) {
+                connection.disconnect();
+            }
+            recordTransfer();
+        }
+
+        private void recordTransfer() {
+            if (counted != null) {
+                metrics.recordNanos(PipelineMetrics.Stage.TRANSFER, counted.readNanos);
+            }
+        }
+    }
+
+    /**
+     * {@link Call} lets another thread abort a request before there is a {@link Response} to
+     * abort, while it connects or waits for the response code. The JDK cannot break off a
+     * TCP connect that has not reached the server yet; that ends with the connect timeout.
+     */
+    public static final class Call {
+
+        private HttpURLConnection connection;
+        private boolean aborted;
+
+        /**
+         * Drops the connection of the request, or makes the request fail as soon as it
+         * starts if it has not started yet.
+         */
+        public void abort() {
+            HttpURLConnection current;
+            synchronized (this) {
+                aborted = true;
+                current = connection;
+            }
+            if (current != null) {
+                current.disconnect();
+            }
+        }
+
+        /**
+         * Remembers the connection of the request and returns whether it may go ahead.
+         */
+        synchronized boolean attach(HttpURLConnection connection) {
+            this.connection = connection;
+            return !aborted;
+        }
+    }
+
+    /**
+     * Makes a GET request to the given URL. The validators are sent as If-None-Match and
+     * If-Modified-Since when they are not null.
+     */
+    public Response get(URL url, String ifNoneMatch, String ifModifiedSince) throws IOException {
+        return get(url, ifNoneMatch, ifModifiedSince, null);
+    }
+
+    /**
+     * Works like {@link #get(URL, String, String)}, but the request can be aborted through
+     * the given {@link Call} from the moment it starts; a request whose call was already
+     * aborted throws an {@link InterruptedIOException}.
+     */
+    public Response get(URL url, String ifNoneMatch, String ifModifiedSince, Call call)
+            throws IOException {
+        long start = metrics.start();
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            if (call != null && !call.attach(connection)) {
+                throw new InterruptedIOException("Request was aborted");
+            }
+            connection.setRequestMethod("GET");
+            connection.setReadTimeout(10000 /* milliseconds */);
+            connection.setConnectTimeout(15000 /* milliseconds */);
+            connection.setUseCaches(false);
+            // Asking for gzip ourselves turns off the platform's transparent decompression,
+            // so the response is unpacked below
+            connection.setRequestProperty("Accept-Encoding", "gzip");
+            if (ifNoneMatch != null) {
+                connection.setRequestProperty("If-None-Match", ifNoneMatch);
+            }
+            if (ifModifiedSince != null) {
+                connection.setRequestProperty("If-Modified-Since", ifModifiedSince);
+            }
+            connection.connect();
+            requestCount.incrementAndGet();
+
+            int code = connection.getResponseCode();
+            metrics.record(PipelineMetrics.Stage.CONNECT, start);
+            metrics.countResponse(code);
+            InputStream raw = code >= 400 ? connection.getErrorStream() : connection.getInputStream();
+            CountingInputStream counted = raw == null ? null : new CountingInputStream(raw);
+            InputStream body = counted == null ? EMPTY : counted;
+            if (code == HttpURLConnection.HTTP_OK
+                    && "gzip".equalsIgnoreCase(connection.getContentEncoding())) {
+                body = new GZIPInputStream(body, BUFFER_SIZE);
+            }
+            return new Response(connection, body, metrics, counted);
+        } catch (IOException e) {
+            connection.disconnect();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns a buffer of {@link #BUFFER_SIZE} bytes from the pool, or a new one if the pool
+     * is empty. Give it back with {@link #releaseBuffer(byte[])} once it is no longer used.
+     */
+    public byte[] acquireBuffer() {
+        synchronized (bufferPool) {
+            byte[] buffer = bufferPool.pollFirst();
+            if (buffer != null) {
+                return buffer;
+            }
+        }
+        return new byte[BUFFER_SIZE];
+    }
+
+    /**
+     * Returns a buffer taken with {@link #acquireBuffer()} to the pool.
+     */
+    public void releaseBuffer(byte[] buffer) {
+        if (buffer.length != BUFFER_SIZE) {
+            return;
+        }
+        synchronized (bufferPool) {
+            if (bufferPool.size() < MAX_POOLED_BUFFERS) {
+                bufferPool.addFirst(buffer);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of requests made through this transport.
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Returns the number of body bytes received through this transport, as they came over
+     * the wire, before decompression.
+     */
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    /**
+     * Returns the metrics this transport records its requests in.
+     */
+    public PipelineMetrics getMetrics() {
+        return metrics;
+    }
+
+    private static final InputStream EMPTY = new InputStream() {
+        @Override
+        public int read() {
+            return -1;
+        }
+    };
+
+    /**
+     * Counts the bytes read from the connection into {@link #bytesReceived} and the metrics,
+     * and adds up the time spent blocked in reads when the metrics are enabled. A response
+     * is read by one thread at a time, so {@link #readNanos} needs no synchronization.
+     */
+    private final class CountingInputStream extends FilterInputStream {
+
+        long readNanos;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = metrics.start();
+            int b = super.read();
+            readNanos += metrics.start() - start;
+            if (b != -1) {
+                bytesReceived.incrementAndGet();
+                metrics.addBytesRead(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            long start = metrics.start();
+            int read = super.read(buffer, offset, count);
+            readNanos += metrics.start() - start;
+            if (read > 0) {
+                bytesReceived.addAndGet(read);
+                metrics.addBytesRead(read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            long start = metrics.start();
+            long skipped = super.skip(count);
+            readNanos += metrics.start() - start;
+            bytesReceived.addAndGet(skipped);
+            metrics.addBytesRead(skipped);
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,559 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.soonami;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * {@link JsonStreamReader} is a pull-based JSON tokenizer that reads UTF-8 bytes straight
+ * from an {@link InputStream}. Unlike {@link org.json.JSONObject} it never holds the whole
+ * response in memory: values are decoded only when asked for, and anything the caller is not
+ * interested in can be skipped with {@link #skipValue()} without building a String for it.
+ *
+ * The API follows the shape of {@code android.util.JsonReader}, but it has no Android
+ * dependencies so the same code can run on a plain JVM.
+ */
+public final class JsonStreamReader implements Closeable {
+
+    /** The kinds of token that {@link #peek()} can return. */
+    public enum Token {
+        BEGIN_ARRAY, END_ARRAY, BEGIN_OBJECT, END_OBJECT, NAME, STRING, NUMBER, BOOLEAN, NULL,
+        END_DOCUMENT
+    }
+
+    /** Scopes kept on the nesting stack */
+    private static final int EMPTY_DOCUMENT = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_ARRAY = 2;
+    private static final int NONEMPTY_ARRAY = 3;
+    private static final int EMPTY_OBJECT = 4;
+    private static final int DANGLING_NAME = 5;
+    private static final int NONEMPTY_OBJECT = 6;
+
+    /** Size of the cache used to share repeated property names such as "title" or "time" */
+    private static final int NAME_CACHE_SIZE = 64;
+
+    private final InputStream in;
+    private final byte[] buffer;
+    private int pos;
+    private int limit;
+
+    private int[] stack = new int[32];
+    private int stackSize;
+
+    /** The token found by the last {@link #peek()}, or null if it has been consumed */
+    private Token peeked;
+
+    /** Scratch space for decoding strings and numbers */
+    private char[] chars = new char[128];
+    private int charCount;
+
+    private final String[] nameCache = new String[NAME_CACHE_SIZE];
+
+    /**
+     * Constructs a new {@link JsonStreamReader} over the given UTF-8 encoded stream.
+     */
+    public JsonStreamReader(InputStream in) {
+        this(in, new byte[8192]);
+    }
+
+    /**
+     * Constructs a new {@link JsonStreamReader} that reads through the given buffer, so callers
+     * that parse many responses can reuse the same byte array.
+     */
+    public JsonStreamReader(InputStream in, byte[] buffer) {
+        this.in = in;
+        this.buffer = buffer;
+        stack[stackSize++] = EMPTY_DOCUMENT;
+    }
+
+    /**
+     * Returns the type of the next token without consuming it.
+     */
+    public Token peek() throws IOException {
+        if (peeked != null) {
+            return peeked;
+        }
+        int c;
+        switch (stack[stackSize - 1]) {
+            case EMPTY_DOCUMENT:
+                stack[stackSize - 1] = NONEMPTY_DOCUMENT;
+                return peeked = peekValue(nextNonWhitespace(true));
+            case NONEMPTY_DOCUMENT:
+                if (nextNonWhitespace(false) != -1) {
+                    throw syntaxError("Expected end of document");
+                }
+                return peeked = Token.END_DOCUMENT;
+            case EMPTY_ARRAY:
+                stack[stackSize - 1] = NONEMPTY_ARRAY;
+                c = nextNonWhitespace(true);
+                return peeked = (c == ']') ? Token.END_ARRAY : peekValue(c);
+            case NONEMPTY_ARRAY:
+                c = nextNonWhitespace(true);
+                if (c == ']') {
+                    return peeked = Token.END_ARRAY;
+                } else if (c != ',') {
+                    throw syntaxError("Expected ',' or ']'");
+                }
+                return peeked = peekValue(nextNonWhitespace(true));
+            case EMPTY_OBJECT:
+            case NONEMPTY_OBJECT:
+                boolean empty = stack[stackSize - 1] == EMPTY_OBJECT;
+                stack[stackSize - 1] = DANGLING_NAME;
+                c = nextNonWhitespace(true);
+                if (c == '}') {
+                    return peeked = Token.END_OBJECT;
+                }
+                if (!empty) {
+                    if (c != ',') {
+                        throw syntaxError("Expected ',' or '}'");
+                    }
+                    c = nextNonWhitespace(true);
+                }
+                if (c != '"') {
+                    throw syntaxError("Expected a property name");
+                }
+                return peeked = Token.NAME;
+            case DANGLING_NAME:
+                stack[stackSize - 1] = NONEMPTY_OBJECT;
+                if (nextNonWhitespace(true) != ':') {
+                    throw syntaxError("Expected ':'");
+                }
+                return peeked = peekValue(nextNonWhitespace(true));
+            default:
+                throw new IllegalStateException("Reader is closed");
+        }
+    }
+
+    /**
+     * Works out which value starts with the given character. The opening quote of a string
+     * and the bracket of an array or object are consumed; numbers and literals are not.
+     */
+    private Token peekValue(int c) throws IOException {
+        switch (c) {
+            case '{':
+                return Token.BEGIN_OBJECT;
+            case '[':
+                return Token.BEGIN_ARRAY;
+            case '"':
+                return Token.STRING;
+            case 't':
+            case 'f':
+                pos--;
+                return Token.BOOLEAN;
+            case 'n':
+                pos--;
+                return Token.NULL;
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    pos--;
+                    return Token.NUMBER;
+                }
+                throw syntaxError("Unexpected character");
+        }
+    }
+
+    public void beginArray() throws IOException {
+        expect(Token.BEGIN_ARRAY);
+        push(EMPTY_ARRAY);
+    }
+
+    public void endArray() throws IOException {
+        expect(Token.END_ARRAY);
+        stackSize--;
+    }
+
+    public void beginObject() throws IOException {
+        expect(Token.BEGIN_OBJECT);
+        push(EMPTY_OBJECT);
+    }
+
+    public void endObject() throws IOException {
+        expect(Token.END_OBJECT);
+        stackSize--;
+    }
+
+    /**
+     * Returns true if the current array or object has another element.
+     */
+    public boolean hasNext() throws IOException {
+        Token token = peek();
+        return token != Token.END_ARRAY && token != Token.END_OBJECT
+                && token != Token.END_DOCUMENT;
+    }
+
+    /**
+     * Returns the next property name. Names that were seen before are returned as the
+     * same String instance, so reading thousands of features does not allocate a new
+     * "title" or "time" for each of them.
+     */
+    public String nextName() throws IOException {
+        expect(Token.NAME);
+        readString();
+        int hash = 0;
+        for (int i = 0; i < charCount; i++) {
+            hash = 31 * hash + chars[i];
+        }
+        int slot = hash & (NAME_CACHE_SIZE - 1);
+        String cached = nameCache[slot];
+        if (cached != null && cached.length() == charCount && contentEquals(cached)) {
+            return cached;
+        }
+        String name = new String(chars, 0, charCount);
+        nameCache[slot] = name;
+        return name;
+    }
+
+    /**
+     * Returns the next string value. Numbers are returned as their text.
+     */
+    public String nextString() throws IOException {
+        Token token = peek();
+        if (token == Token.STRING) {
+            readString();
+        } else if (token == Token.NUMBER) {
+            readNumber();
+        } else {
+            throw syntaxError("Expected a string but was " + token);
+        }
+        peeked = null;
+        return new String(chars, 0, charCount);
+    }
+
+    public long nextLong() throws IOException {
+        readNumberOrString();
+        long result = 0;
+        boolean negative = false;
+        int i = 0;
+        if (charCount > 0 && chars[0] == '-') {
+            negative = true;
+            i = 1;
+        }
+        if (i == charCount || charCount - i > 18) {
+            return (long) parseDouble();
+        }
+        for (; i < charCount; i++) {
+            char c = chars[i];
+            if (c < '0' || c > '9') {
+                // Not a plain integer such as "1.5e3"; fall back to the general parser
+                return (long) parseDouble();
+            }
+            result = result * 10 + (c - '0');
+        }
+        return negative ? -result : result;
+    }
+
+    public int nextInt() throws IOException {
+        long result = nextLong();
+        if (result != (int) result) {
+            throw syntaxError("Expected an int but was " + result);
+        }
+        return (int) result;
+    }
+
+    public double nextDouble() throws IOException {
+        readNumberOrString();
+        return parseDouble();
+    }
+
+    public boolean nextBoolean() throws IOException {
+        expect(Token.BOOLEAN);
+        if (readLiteral("true")) {
+            return true;
+        } else if (readLiteral("false")) {
+            return false;
+        }
+        throw syntaxError("Expected a boolean");
+    }
+
+    public void nextNull() throws IOException {
+        expect(Token.NULL);
+        if (!readLiteral("null")) {
+            throw syntaxError("Expected null");
+        }
+    }
+
+    /**
+     * Skips the next value, including all nested arrays and objects, without decoding it.
+     */
+    public void skipValue() throws IOException {
+        int depth = 0;
+        do {
+            Token token = peek();
+            switch (token) {
+                case BEGIN_ARRAY:
+                    beginArray();
+                    depth++;
+                    break;
+                case BEGIN_OBJECT:
+                    beginObject();
+                    depth++;
+                    break;
+                case END_ARRAY:
+                    endArray();
+                    depth--;
+                    break;
+                case END_OBJECT:
+                    endObject();
+                    depth--;
+                    break;
+                case NAME:
+                case STRING:
+                    skipString();
+                    peeked = null;
+                    break;
+                case NUMBER:
+                    readNumber();
+                    peeked = null;
+                    break;
+                case BOOLEAN:
+                    nextBoolean();
+                    break;
+                case NULL:
+                    nextNull();
+                    break;
+                default:
+                    throw syntaxError("Nothing left to skip");
+            }
+        } while (depth > 0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        peeked = null;
+        stack[0] = -1;
+        stackSize = 1;
+        in.close();
+    }
+
+    private void expect(Token expected) throws IOException {
+        Token token = peek();
+        if (token != expected) {
+            throw syntaxError("Expected " + expected + " but was " + token);
+        }
+        peeked = null;
+    }
+
+    private void push(int scope) {
+        if (stackSize == stack.length) {
+            int[] newStack = new int[stackSize * 2];
+            System.arraycopy(stack, 0, newStack, 0, stackSize);
+            stack = newStack;
+        }
+        stack[stackSize++] = scope;
+    }
+
+    /**
+     * Returns the next byte of the stream, or -1 at the end of it.
+     */
+    private int read() throws IOException {
+        if (pos == limit) {
+            int count = in.read(buffer, 0, buffer.length);
+            if (count <= 0) {
+                return -1;
+            }
+            pos = 0;
+            limit = count;
+        }
+        return buffer[pos++] & 0xff;
+    }
+
+    private int readRequired() throws IOException {
+        int b = read();
+        if (b == -1) {
+            throw syntaxError("Unexpected end of input");
+        }
+        return b;
+    }
+
+    private int nextNonWhitespace(boolean required) throws IOException {
+        while (true) {
+            int c = read();
+            if (c == -1) {
+                if (required) {
+                    throw syntaxError("Unexpected end of input");
+                }
+                return -1;
+            }
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                return c;
+            }
+        }
+    }
+
+    private void readNumberOrString() throws IOException {
+        Token token = peek();
+        if (token == Token.NUMBER) {
+            readNumber();
+        } else if (token == Token.STRING) {
+            readString();
+        } else {
+            throw syntaxError("Expected a number but was " + token);
+        }
+        peeked = null;
+    }
+
+    /**
+     * Reads the characters of a number into {@link #chars}.
+     */
+    private void readNumber() throws IOException {
+        charCount = 0;
+        while (true) {
+            int c = read();
+            if ((c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E') {
+                append((char) c);
+            } else {
+                if (c != -1) {
+                    pos--;
+                }
+                return;
+            }
+        }
+    }
+
+    private double parseDouble() throws IOException {
+        try {
+            return Double.parseDouble(new String(chars, 0, charCount));
+        } catch (NumberFormatException e) {
+            throw syntaxError("Malformed number");
+        }
+    }
+
+    private boolean readLiteral(String literal) throws IOException {
+        int length = literal.length();
+        if (limit - pos < length) {
+            // Move the remaining bytes to the front so the whole literal fits in the buffer
+            System.arraycopy(buffer, pos, buffer, 0, limit - pos);
+            limit -= pos;
+            pos = 0;
+            while (limit < length) {
+                int count = in.read(buffer, limit, buffer.length - limit);
+                if (count <= 0) {
+                    return false;
+                }
+                limit += count;
+            }
+        }
+        for (int i = 0; i < length; i++) {
+            if (buffer[pos + i] != literal.charAt(i)) {
+                return false;
+            }
+        }
+        pos += length;
+        return true;
+    }
+
+    /**
+     * Decodes the rest of a string whose opening quote has already been consumed
+     * into {@link #chars}.
+     */
+    private void readString() throws IOException {
+        charCount = 0;
+        while (true) {
+            int b = readRequired();
+            if (b == '"') {
+                return;
+            } else if (b == '\\') {
+                append(readEscape());
+            } else if (b < 0x80) {
+                append((char) b);
+            } else if (b < 0xe0) {
+                append((char) (((b & 0x1f) << 6) | (readRequired() & 0x3f)));
+            } else if (b < 0xf0) {
+                int b2 = readRequired();
+                int b3 = readRequired();
+                append((char) (((b & 0x0f) << 12) | ((b2 & 0x3f) << 6) | (b3 & 0x3f)));
+            } else {
+                int b2 = readRequired();
+                int b3 = readRequired();
+                int b4 = readRequired();
+                int codePoint = ((b & 0x07) << 18) | ((b2 & 0x3f) << 12) | ((b3 & 0x3f) << 6)
+                        | (b4 & 0x3f);
+                // Character.highSurrogate and lowSurrogate only exist from Android API 19
+                append((char) (0xD800 + ((codePoint - 0x10000) >> 10)));
+                append((char) (0xDC00 + (codePoint & 0x3FF)));
+            }
+        }
+    }
+
+    private char readEscape() throws IOException {
+        int c = readRequired();
+        switch (c) {
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case 'u':
+                int result = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(readRequired(), 16);
+                    if (digit == -1) {
+                        throw syntaxError("Malformed unicode escape");
+                    }
+                    result = (result << 4) | digit;
+                }
+                return (char) result;
+            default:
+                // '"', '\\' and '/' stand for themselves
+                return (char) c;
+        }
+    }
+
+    /**
+     * Skips the rest of a string without decoding it. Multi-byte UTF-8 sequences never
+     * contain a quote or a backslash byte, so they can be stepped over one byte at a time.
+     */
+    private void skipString() throws IOException {
+        while (true) {
+            int b = readRequired();
+            if (b == '"') {
+                return;
+            } else if (b == '\\') {
+                readRequired();
+            }
+        }
+    }
+
+    private void append(char c) {
+        if (charCount == chars.length) {
+            char[] newChars = new char[charCount * 2];
+            System.arraycopy(chars, 0, newChars, 0, charCount);
+            chars = newChars;
+        }
+        chars[charCount++] = c;
+    }
+
+    private boolean contentEquals(String s) {
+        for (int i = 0; i < charCount; i++) {
+            if (s.charAt(i) != chars[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private IOException syntaxError(String message) {
+        return new IOException(message + " in JSON response");
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.soonami;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * {@link LatencyHistogram} counts durations (in nanoseconds) in buckets laid out the way
+ * HdrHistogram lays them out: values below 128 get a bucket each, and every power of two
+ * above that is split into 64 equal buckets. Any recorded value is therefore known to within
+ * 1/64 of itself, from nanoseconds up to {@link #MAX_VALUE}, with about 2,500 counters.
+ *
+ * Recording takes a few arithmetic operations and atomic adds and never allocates, so it can
+ * be called from any thread on the hot path. Percentiles are read from a {@link #copy} so
+ * they do not move while they are computed.
+ */
+public final class LatencyHistogram {
+
+    /** Values below this many get a bucket each */
+    private static final int SUB_BUCKET_COUNT = 128;
+    private static final int HALF_SUB_BUCKET_COUNT = SUB_BUCKET_COUNT / 2;
+    private static final int SUB_BUCKET_BITS = 7;
+
+    /** Largest value that is told apart from larger ones, a little over four hours */
+    public static final long MAX_VALUE = (1L << 44) - 1;
+
+    private static final int BUCKET_COUNT = bucketIndex(MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong totalValue = new AtomicLong();
+    private final AtomicLong maxValue = new AtomicLong();
+
+    /**
+     * Records one value. Negative values count as 0 and values above {@link #MAX_VALUE}
+     * count as {@link #MAX_VALUE}.
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        } else if (value > MAX_VALUE) {
+            value = MAX_VALUE;
+        }
+        counts.incrementAndGet(bucketIndex(value));
+        totalCount.incrementAndGet();
+        totalValue.addAndGet(value);
+        long max = maxValue.get();
+        while (value > max && !maxValue.compareAndSet(max, value)) {
+            max = maxValue.get();
+        }
+    }
+
+    /**
+     * Returns the number of recorded values.
+     */
+    public long getCount() {
+        return totalCount.get();
+    }
+
+    /**
+     * Returns the largest recorded value, or 0 if there is none.
+     */
+    public long getMax() {
+        return maxValue.get();
+    }
+
+    /**
+     * Returns the mean of the recorded values, or 0 if there is none.
+     */
+    public double getMean() {
+        long count = totalCount.get();
+        return count == 0 ? 0 : (double) totalValue.get() / count;
+    }
+
+    /**
+     * Returns the value below or at which the given percentage of the recorded values lie,
+     * as the upper end of its bucket but no more than {@link #getMax()}, or 0 if there is
+     * no value.
+     *
+     * @param percentile is between 0 and 100
+     */
+    public long getValueAtPercentile(double percentile) {
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            count += counts.get(i);
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highestValueOfBucket(i), maxValue.get());
+            }
+        }
+        return maxValue.get();
+    }
+
+    /**
+     * Returns a histogram with the values recorded so far. With {@code reset}, the values
+     * are taken out of this histogram, so the next copy only has the ones recorded after
+     * this call; a value recorded during the call ends up in exactly one of the two copies,
+     * though the totals and the maximum may be split from its bucket.
+     */
+    public LatencyHistogram copy(boolean reset) {
+        LatencyHistogram copy = new LatencyHistogram();
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long count = reset ? counts.getAndSet(i, 0) : counts.get(i);
+            if (count != 0) {
+                copy.counts.set(i, count);
+            }
+        }
+        if (reset) {
+            copy.totalCount.set(totalCount.getAndSet(0));
+            copy.totalValue.set(totalValue.getAndSet(0));
+            copy.maxValue.set(maxValue.getAndSet(0));
+        } else {
+            copy.totalCount.set(totalCount.get());
+            copy.totalValue.set(totalValue.get());
+            copy.maxValue.set(maxValue.get());
+        }
+        return copy;
+    }
+
+    /**
+     * Returns the bucket of a value between 0 and {@link #MAX_VALUE}. Above the linear range,
+     * the bucket is given by the position of the highest set bit and the six bits below it.
+     */
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        int subBucket = (int) (value >>> shift);
+        return SUB_BUCKET_COUNT + (shift - 1) * HALF_SUB_BUCKET_COUNT
+                + subBucket - HALF_SUB_BUCKET_COUNT;
+    }
+
+    /**
+     * Returns the largest value that falls into the given bucket.
+     */
+    static long highestValueOfBucket(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKET_COUNT) / HALF_SUB_BUCKET_COUNT + 1;
+        long subBucket = (index - SUB_BUCKET_COUNT) % HALF_SUB_BUCKET_COUNT + HALF_SUB_BUCKET_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,319 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.soonami;
+
+import java.util.Locale;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * {@link PipelineMetrics} records how long each stage of loading earthquakes takes, in a
+ * {@link LatencyHistogram} per {@link Stage}, and counts the bytes read, the events parsed
+ * and the response codes.
+ *
+ * Code that is timed asks for {@link #start()} and hands the result to
+ * {@link #record(Stage, long)}. On {@link #DISABLED}, neither reads the clock nor touches a
+ * counter, so instrumented code costs a branch on a final field when metrics are off.
+ *
+ * The numbers are read as a {@link Snapshot}, either on demand or periodically through
+ * {@link #scheduleExport}.
+ */
+public final class PipelineMetrics {
+
+    /**
+     * {@link Stage} is one step between asking USGS for earthquakes and showing them. The
+     * stages of the streaming path overlap: parsing reads the body as it arrives, so
+     * {@link #PARSE} includes the time {@link #TRANSFER} spent waiting for the network.
+     */
+    public enum Stage {
+        /** From opening the connection to the response code, including DNS, TCP and TLS */
+        CONNECT,
+        /** Time spent blocked reading the body of one response */
+        TRANSFER,
+        /** Reading a whole response into a String on the legacy path */
+        READ_FROM_STREAM,
+        /** Turning one response into events */
+        PARSE,
+        /** Turning one set of events into the text of the list, off the main thread */
+        FORMAT,
+        /** Handing one set of formatted events to the views, on the main thread */
+        UI_BIND
+    }
+
+    /**
+     * {@link Exporter} receives the snapshots of {@link #scheduleExport}.
+     */
+    public interface Exporter {
+
+        /**
+         * Called on the export thread with the numbers of the last period.
+         */
+        void export(Snapshot snapshot);
+    }
+
+    /** Metrics that record nothing */
+    public static final PipelineMetrics DISABLED = new PipelineMetrics(false);
+
+    /** Response codes are counted one by one up to this, and together above it */
+    private static final int MAX_RESPONSE_CODE = 599;
+
+    private static final Stage[] STAGES = Stage.values();
+
+    private final boolean enabled;
+    private final LatencyHistogram[] histograms;
+    private final AtomicLong bytesRead;
+    private final AtomicLong eventsParsed;
+    private final AtomicLongArray responseCodes;
+
+    /**
+     * Constructs a new {@link PipelineMetrics} that records.
+     */
+    public PipelineMetrics() {
+        this(true);
+    }
+
+    private PipelineMetrics(boolean enabled) {
+        this.enabled = enabled;
+        if (enabled) {
+            histograms = new LatencyHistogram[STAGES.length];
+            for (int i = 0; i < histograms.length; i++) {
+                histograms[i] = new LatencyHistogram();
+            }
+            bytesRead = new AtomicLong();
+            eventsParsed = new AtomicLong();
+            responseCodes = new AtomicLongArray(MAX_RESPONSE_CODE + 2);
+        } else {
+            histograms = null;
+            bytesRead = null;
+            eventsParsed = null;
+            responseCodes = null;
+        }
+    }
+
+    /**
+     * Returns whether these metrics record anything.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the start time of a stage, to be handed to {@link #record(Stage, long)}, or 0
+     * without reading the clock when disabled.
+     */
+    public long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records a stage that began at the given {@link #start()} time and ends now.
+     */
+    public void record(Stage stage, long startNanos) {
+        if (enabled) {
+            histograms[stage.ordinal()].record(System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * Records a stage that took the given time (in nanoseconds).
+     */
+    public void recordNanos(Stage stage, long nanos) {
+        if (enabled) {
+            histograms[stage.ordinal()].record(nanos);
+        }
+    }
+
+    /**
+     * Adds to the number of body bytes read, as they came over the wire.
+     */
+    public void addBytesRead(long count) {
+        if (enabled) {
+            bytesRead.addAndGet(count);
+        }
+    }
+
+    /**
+     * Adds to the number of events parsed from responses.
+     */
+    public void addEventsParsed(long count) {
+        if (enabled) {
+            eventsParsed.addAndGet(count);
+        }
+    }
+
+    /**
+     * Counts a response with the given HTTP status code.
+     */
+    public void countResponse(int code) {
+        if (enabled) {
+            responseCodes.incrementAndGet(code >= 0 && code <= MAX_RESPONSE_CODE
+                    ? code : MAX_RESPONSE_CODE + 1);
+        }
+    }
+
+    /**
+     * Returns the numbers recorded so far. With {@code reset}, they start again from zero,
+     * so consecutive snapshots cover consecutive periods.
+     */
+    public Snapshot snapshot(boolean reset) {
+        if (!enabled) {
+            return new Snapshot(null, 0, 0, null);
+        }
+        LatencyHistogram[] copies = new LatencyHistogram[STAGES.length];
+        for (int i = 0; i < copies.length; i++) {
+            copies[i] = histograms[i].copy(reset);
+        }
+        long[] codes = new long[responseCodes.length()];
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = reset ? responseCodes.getAndSet(i, 0) : responseCodes.get(i);
+        }
+        return new Snapshot(copies,
+                reset ? bytesRead.getAndSet(0) : bytesRead.get(),
+                reset ? eventsParsed.getAndSet(0) : eventsParsed.get(),
+                codes);
+    }
+
+    /**
+     * Hands a snapshot of each period to the exporter, on a daemon thread of its own, and
+     * starts the next period from zero. Cancel the returned future to stop exporting; the
+     * thread ends when the next export would have been due. Returns null without exporting
+     * anything when disabled.
+     */
+    public ScheduledFuture<?> scheduleExport(long periodMillis, final Exporter exporter) {
+        if (!enabled) {
+            return null;
+        }
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1,
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "PipelineMetrics");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        // Once shut down, the executor keeps exporting and ends its thread after the export
+        // is cancelled. setRemoveOnCancelPolicy would end it right away, but needs API 21;
+        // without it the cancelled export stays queued until it was due
+        executor.setContinueExistingPeriodicTasksAfterShutdownPolicy(true);
+        ScheduledFuture<?> future = executor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                exporter.export(snapshot(true));
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+        executor.shutdown();
+        return future;
+    }
+
+    /**
+     * {@link Snapshot} holds the numbers of {@link PipelineMetrics} at one point, or over
+     * one period.
+     */
+    public static final class Snapshot {
+
+        /** Number of body bytes read, as they came over the wire */
+        public final long bytesRead;
+
+        /** Number of events parsed from responses */
+        public final long eventsParsed;
+
+        private final LatencyHistogram[] histograms;
+        private final long[] responseCodes;
+
+        Snapshot(LatencyHistogram[] histograms, long bytesRead, long eventsParsed,
+                 long[] responseCodes) {
+            this.histograms = histograms;
+            this.bytesRead = bytesRead;
+            this.eventsParsed = eventsParsed;
+            this.responseCodes = responseCodes;
+        }
+
+        /**
+         * Returns the times recorded for the given stage (in nanoseconds), or null if the
+         * metrics were disabled.
+         */
+        public LatencyHistogram getHistogram(Stage stage) {
+            return histograms == null ? null : histograms[stage.ordinal()];
+        }
+
+        /**
+         * Returns the number of responses with the given HTTP status code.
+         */
+        public long getResponseCount(int code) {
+            if (responseCodes == null || code < 0 || code > MAX_RESPONSE_CODE) {
+                return 0;
+            }
+            return responseCodes[code];
+        }
+
+        /**
+         * Returns the number of responses with any status code.
+         */
+        public long getResponseCount() {
+            long count = 0;
+            if (responseCodes != null) {
+                for (long codeCount : responseCodes) {
+                    count += codeCount;
+                }
+            }
+            return count;
+        }
+
+        /**
+         * Returns the snapshot on one line per stage that saw any time, followed by the
+         * counters, with times in milliseconds, e.g.
+         * {@code PARSE n=4 p50=12.1 p90=15.0 p99=15.3 max=15.3}.
+         */
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            if (histograms != null) {
+                for (Stage stage : STAGES) {
+                    LatencyHistogram histogram = histograms[stage.ordinal()];
+                    if (histogram.getCount() == 0) {
+                        continue;
+                    }
+                    builder.append(stage).append(" n=").append(histogram.getCount())
+                            .append(" p50=").append(millis(histogram.getValueAtPercentile(50)))
+                            .append(" p90=").append(millis(histogram.getValueAtPercentile(90)))
+                            .append(" p99=").append(millis(histogram.getValueAtPercentile(99)))
+                            .append(" max=").append(millis(histogram.getMax()))
+                            .append('\n');
+                }
+            }
+            builder.append("bytesRead=").append(bytesRead)
+                    .append(" eventsParsed=").append(eventsParsed);
+            if (responseCodes != null) {
+                for (int code = 0; code < responseCodes.length; code++) {
+                    if (responseCodes[code] != 0) {
+                        builder.append(code > MAX_RESPONSE_CODE ? " other" : " " + code)
+                                .append('=').append(responseCodes[code]);
+                    }
+                }
+            }
+            return builder.toString();
+        }
+
+        private static String millis(long nanos) {
+            return String.format(Locale.US, "%.1f", nanos / 1e6);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.soonami;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.SimpleDateFormat;
+
+/**
+ * Helper methods related to reading and formatting the USGS earthquake results. They have
+ * no Android dependencies, so they can be benchmarked on a plain JVM.
+ */
+public final class QueryUtils {
+
+    /**
+     * Create a private constructor because no one should ever create a {@link QueryUtils} object.
+     * This class is only meant to hold static variables and methods.
+     */
+    private QueryUtils() {
+    }
+
+    /**
+     * Convert the {@link InputStream} into a String which contains the whole JSON response from the server.
+     *
+     * The raw bytes are copied chunk by chunk, through the given buffer, and decoded
+     * from UTF-8 only once at the end. Unlike reading line by line, this keeps the newlines of the response.
+     */
+    public static String readFromStream(InputStream inputStream, byte[] buffer) throws IOException {   //In this method we have an inputStream and we want to return a string containing the contents of that stream.
+        ByteArrayOutputStream output = new ByteArrayOutputStream();  // Collects the raw bytes of the whole response.
+        if (inputStream != null) {    //If the inputStream is not null (meaning if the inputStream contains anything), then do the following steps:
+            int count = inputStream.read(buffer);  // Read the first chunk of bytes.
+            while (count != -1) {                  // While the stream isn't finished,
+                output.write(buffer, 0, count);    // we will append that chunk to "output",
+                count = inputStream.read(buffer);  // and then read another chunk.
+            }
+        }
+        return output.toString("UTF-8");  // Decode the collected bytes into a String and then parse the Jason.
+    }
+
+    /**
+     * Return an {@link Event} object by parsing out information about the first earthquake from the input earthquakeJSON string.
+     * It the return value of the makeHttpRequest method can be an empty String,
+     * then make sure the method (extractFeatureFromJson) that takes the jasonResponse as input is handling that empty String
+     */
+    public static Event extractFeatureFromJson(String earthquakeJSON) throws JSONException {
+        // Before proceeding from extracting information from the jsonResponse, we should check if the input parameter is either the empty String or null.
+        // Check if the jsonResponse String (input parameter) is empty (null). If so, then return early.
+        if (earthquakeJSON == null || earthquakeJSON.isEmpty()) {    // If this String is empty, then this expression will be true and we will return early from the method.
+            return null;            //We return null because there is no valid event object from the jsonResponse.
+        }
+        JSONObject baseJsonResponse = new JSONObject(earthquakeJSON);
+        JSONArray featureArray = baseJsonResponse.getJSONArray("features");
+
+        // If there are results in the features array
+        if (featureArray.length() > 0) {
+            // Extract out the first feature (which is an earthquake)
+            JSONObject firstFeature = featureArray.getJSONObject(0);
+            JSONObject properties = firstFeature.getJSONObject("properties");
+
+            // Extract out the title, time, tsunami and magnitude values
+            String title = properties.getString("title");
+            long time = properties.getLong("time");
+            int tsunamiAlert = properties.getInt("tsunami");
+            float magnitude = (float) properties.optDouble("mag", Double.NaN);
+
+            // Extract out the location, stored as "coordinates": [longitude, latitude, depth]
+            float latitude = Float.NaN;
+            float longitude = Float.NaN;
+            float depth = Float.NaN;
+            JSONObject geometry = firstFeature.optJSONObject("geometry");
+            JSONArray coordinates = geometry == null ? null : geometry.optJSONArray("coordinates");
+            if (coordinates != null) {
+                longitude = (float) coordinates.optDouble(0, Double.NaN);
+                latitude = (float) coordinates.optDouble(1, Double.NaN);
+                depth = (float) coordinates.optDouble(2, Double.NaN);
+            }
+
+            // Create a new {@link Event} object
+            return new Event(title, time, tsunamiAlert, magnitude, latitude, longitude, depth);
+        }
+        return null;
+    }
+
+    /**
+     * Returns a formatted date and time string for when the earthquake happened.
+     *
+     * This builds a new {@link SimpleDateFormat} on every call, which is slow when many events
+     * are formatted; {@link EventDateFormatter} gives the same text and should be used instead.
+     */
+    public static String getDateString(long timeInMilliseconds) {
+        SimpleDateFormat formatter = new SimpleDateFormat("EEE, d MMM yyyy 'at' HH:mm:ss z");
+        return formatter.format(timeInMilliseconds);
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.soonami;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * {@link StringPool} hands out a small int id for every distinct String, such as an
+ * earthquake title or event id, so that {@link EventStore} can keep one int per row instead
+ * of one String reference, and events that share a title also share its characters.
+ *
+ * The Strings themselves are not kept. Their UTF-8 bytes are packed one after another into a
+ * single array, which costs one byte per ASCII character and four bytes of offset per
+ * String, instead of a String object, a character array and a reference. {@link #get}
+ * therefore creates a new String on every call. An unpaired surrogate is stored as '?', as
+ * {@link String#getBytes} would store it.
+ *
+ * Ids are given out in order starting from 0. The lookup table is an open-addressed hash
+ * table of ids, at most three quarters full, so interning a String that is already in the
+ * pool does not allocate.
+ */
+public final class StringPool {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Marks a free slot in {@link #table} */
+    private static final int FREE = -1;
+
+    /** UTF-8 bytes of every String in the pool, in id order */
+    private byte[] bytes = new byte[1024];
+
+    /** Start of each String in {@link #bytes}; String {@code id} ends where {@code id + 1} starts */
+    private int[] offsets = new int[65];
+    private int size;
+
+    /** Hash table of ids; its length is always a power of two */
+    private int[] table = newTable(128);
+
+    /** UTF-8 bytes of the String being looked up */
+    private byte[] scratch = new byte[256];
+    private int scratchLength;
+
+    /**
+     * Returns the id of the given String, adding it to the pool if it is new.
+     * A null String is stored as the empty String.
+     */
+    public int intern(String value) {
+        encode(value);
+        int slot = findSlot();
+        if (table[slot] != FREE) {
+            return table[slot];
+        }
+
+        int start = offsets[size];
+        if (start + scratchLength > bytes.length) {
+            bytes = Arrays.copyOf(bytes,
+                    Math.max(start + scratchLength, bytes.length + (bytes.length >> 1)));
+        }
+        if (size + 2 > offsets.length) {
+            offsets = Arrays.copyOf(offsets, offsets.length + (offsets.length >> 1));
+        }
+        System.arraycopy(scratch, 0, bytes, start, scratchLength);
+        int id = size++;
+        offsets[size] = start + scratchLength;
+        table[slot] = id;
+        if (size * 4 > table.length * 3) {
+            rehash(table.length * 2);
+        }
+        return id;
+    }
+
+    /**
+     * Returns the id of the given String, or -1 if it is not in the pool.
+     */
+    public int indexOf(String value) {
+        encode(value);
+        return table[findSlot()];
+    }
+
+    /**
+     * Returns a new String equal to the one with the given id.
+     */
+    public String get(int id) {
+        if (id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException("No string with id " + id);
+        }
+        return new String(bytes, offsets[id], offsets[id + 1] - offsets[id], UTF_8);
+    }
+
+    /**
+     * Returns the number of distinct Strings in the pool.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Removes every String from the pool, keeping the byte array for reuse.
+     */
+    public void clear() {
+        size = 0;
+        table = newTable(128);
+    }
+
+    /**
+     * Writes the UTF-8 bytes of the given String into {@link #scratch}.
+     */
+    private void encode(String value) {
+        int length = value == null ? 0 : value.length();
+        if (length * 3 > scratch.length) {
+            scratch = new byte[Math.max(length * 3, scratch.length * 2)];
+        }
+        int n = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                scratch[n++] = (byte) c;
+            } else if (c < 0x800) {
+                scratch[n++] = (byte) (0xC0 | (c >> 6));
+                scratch[n++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                scratch[n++] = (byte) (0xF0 | (codePoint >> 18));
+                scratch[n++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                scratch[n++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                scratch[n++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (c >= 0xD800 && c <= 0xDFFF) {
+                scratch[n++] = '?';
+            } else {
+                scratch[n++] = (byte) (0xE0 | (c >> 12));
+                scratch[n++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                scratch[n++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        scratchLength = n;
+    }
+
+    /**
+     * Returns the slot of {@link #table} that holds the String in {@link #scratch}, or the
+     * free slot where it would be inserted.
+     */
+    private int findSlot() {
+        int mask = table.length - 1;
+        int slot = hash(scratch, 0, scratchLength) & mask;
+        while (table[slot] != FREE && !matches(table[slot])) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Returns true if the String with the given id has the bytes in {@link #scratch}.
+     */
+    private boolean matches(int id) {
+        int start = offsets[id];
+        if (offsets[id + 1] - start != scratchLength) {
+            return false;
+        }
+        for (int i = 0; i < scratchLength; i++) {
+            if (bytes[start + i] != scratch[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rehash(int capacity) {
+        int[] newTable = newTable(capacity);
+        int mask = capacity - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = hash(bytes, offsets[id], offsets[id + 1]) & mask;
+            while (newTable[slot] != FREE) {
+                slot = (slot + 1) & mask;
+            }
+            newTable[slot] = id;
+        }
+        table = newTable;
+    }
+
+    /**
+     * Hashes the bytes from {@code start} to {@code end}, mixing the high bits into the low
+     * bits that pick the slot.
+     */
+    private static int hash(byte[] bytes, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + bytes[i];
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private static int[] newTable(int capacity) {
+        int[] table = new int[capacity];
+        for (int i = 0; i < capacity; i++) {
+            table[i] = FREE;
+        }
+        return table;
+    }
+}
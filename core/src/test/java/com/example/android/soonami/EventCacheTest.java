@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.soonami;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks that {@link EventCache} keeps what it is given within its size limit, and that
+ * {@link EventLoader#refresh()} only goes over the wire when the cached copy is stale, and
+ * then as a conditional request.
+ */
+public class EventCacheTest {
+
+    private static final long MAX_AGE_MILLIS = 5 * 60 * 1000;
+    private static final String ETAG = "\"v1\"";
+    private static final String LAST_MODIFIED = "Sat, 22 Sep 2018 13:03:39 GMT";
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("events", "");
+        directory.delete();
+    }
+
+    @After
+    public void tearDown() {
+        new EventCache(directory, 0).clear();
+        directory.delete();
+    }
+
+    @Test
+    public void roundTripsAnEntry() throws IOException {
+        EventCache cache = new EventCache(directory, Long.MAX_VALUE);
+        EventStore events = parse(UsgsFixtures.response(1000, 1));
+        cache.put("https://example.com/a", events, ETAG, LAST_MODIFIED, 42);
+
+        EventCache.Entry entry = new EventCache(directory, Long.MAX_VALUE)
+                .get("https://example.com/a");
+        assertEquals(ETAG, entry.etag);
+        assertEquals(LAST_MODIFIED, entry.lastModified);
+        assertEquals(42, entry.fetchedAt);
+        assertEquals(events.size(), entry.events.size());
+        for (int row = 0; row < events.size(); row++) {
+            assertEquals(events.getId(row), entry.events.getId(row));
+            assertEquals(events.getTitle(row), entry.events.getTitle(row));
+            assertEquals(events.getUpdated(row), entry.events.getUpdated(row));
+        }
+
+        cache.touch("https://example.com/a", 43);
+        assertEquals(43, cache.get("https://example.com/a").fetchedAt);
+        assertNull(cache.get("https://example.com/b"));
+    }
+
+    @Test
+    public void keepsAnEntryLargerThanTheLimit() throws IOException {
+        EventCache cache = new EventCache(directory, 1024);
+        cache.put("https://example.com/a", parse(UsgsFixtures.response(1000, 1)), null, null, 1);
+        assertEquals(1000, cache.get("https://example.com/a").events.size());
+
+        // A second entry over the limit replaces the first one rather than itself
+        cache.put("https://example.com/b", parse(UsgsFixtures.response(500, 2)), null, null, 2);
+        assertNull(cache.get("https://example.com/a"));
+        assertEquals(500, cache.get("https://example.com/b").events.size());
+    }
+
+    @Test
+    public void evictsOlderEntriesOnly() throws IOException {
+        EventCache cache = new EventCache(directory, Long.MAX_VALUE);
+        cache.put("https://example.com/a", parse(UsgsFixtures.response(100, 1)), null, null, 1);
+        long size = totalSize();
+
+        cache = new EventCache(directory, size * 3 / 2);
+        cache.put("https://example.com/b", parse(UsgsFixtures.response(100, 2)), null, null, 2);
+        assertNull(cache.get("https://example.com/a"));
+        assertNotNull(cache.get("https://example.com/b"));
+    }
+
+    @Test
+    public void dropsACorruptFile() throws IOException {
+        EventCache cache = new EventCache(directory, Long.MAX_VALUE);
+        cache.put("https://example.com/a", parse(UsgsFixtures.response(100, 1)), null, null, 1);
+        File file = directory.listFiles()[0];
+        long length = file.length();
+        FileOutputStream out = new FileOutputStream(file, true);
+        out.getChannel().truncate(length / 2);
+        out.close();
+
+        assertNull(cache.get("https://example.com/a"));
+        assertEquals(0, directory.listFiles().length);
+    }
+
+    @Test
+    public void revalidatesOnlyWhenStale() throws IOException {
+        final byte[] body = UsgsFixtures.response(2000, 3);
+        FeedServer server = new FeedServer(new FeedServer.Handler() {
+            @Override
+            public FeedServer.Reply handle(FeedServer.Request request) {
+                if (ETAG.equals(request.header("If-None-Match"))) {
+                    return FeedServer.Reply.status(304);
+                }
+                return FeedServer.Reply.ok(body).header("ETag", ETAG)
+                        .header("Last-Modified", LAST_MODIFIED);
+            }
+        });
+        try {
+            ManualClock clock = new ManualClock(UsgsFixtures.NEWEST_TIME);
+            HttpTransport transport = new HttpTransport();
+            EventLoader loader = new EventLoader(server.url("/query?format=geojson"), transport,
+                    new EventCache(directory, Long.MAX_VALUE), MAX_AGE_MILLIS, clock);
+            assertNull(loader.loadCached());
+
+            assertEquals(2000, loader.refresh().size());
+            assertEquals(1, server.getRequestCount());
+            assertEquals(body.length, server.getBytesSent());
+            assertEquals(body.length, transport.getBytesReceived());
+
+            // Fresh: nothing goes over the wire
+            clock.advance(MAX_AGE_MILLIS - 1);
+            assertEquals(2000, loader.refresh().size());
+            assertEquals(1, server.getRequestCount());
+
+            // Stale: a conditional request, answered without a body
+            clock.advance(1);
+            assertEquals(2000, loader.refresh().size());
+            assertEquals(2, server.getRequestCount());
+            FeedServer.Request revalidation = server.getRequests().get(1);
+            assertEquals(ETAG, revalidation.header("If-None-Match"));
+            assertEquals(LAST_MODIFIED, revalidation.header("If-Modified-Since"));
+            assertEquals(body.length, server.getBytesSent());
+            assertEquals(body.length, transport.getBytesReceived());
+
+            // The 304 made the copy on disk fresh again for the next run
+            EventLoader restarted = new EventLoader(server.url("/query?format=geojson"),
+                    transport, new EventCache(directory, Long.MAX_VALUE), MAX_AGE_MILLIS, clock);
+            assertEquals(2000, restarted.loadCached().size());
+            clock.advance(MAX_AGE_MILLIS - 1);
+            assertEquals(2000, restarted.refresh().size());
+            assertEquals(2, server.getRequestCount());
+            assertEquals(2, transport.getRequestCount());
+        } finally {
+            server.close();
+        }
+    }
+
+    private long totalSize() {
+        long size = 0;
+        for (File file : directory.listFiles()) {
+            size += file.length();
+        }
+        return size;
+    }
+
+    private static EventStore parse(byte[] json) throws IOException {
+        EventStore events = new EventStore();
+        new EventStreamParser(new ByteArrayInputStream(json)).readInto(events);
+        return events;
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.soonami;
+
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that {@link EventDateFormatter} writes exactly what a {@link SimpleDateFormat} with
+ * the same pattern, locale and time zone writes, with neither taken from the JVM defaults.
+ */
+public class EventDateFormatterTest {
+
+    private static final String PATTERN = "EEE, d MMM yyyy 'at' HH:mm:ss z";
+
+    private static final long MINUTE_MILLIS = 60 * 1000L;
+    private static final long HOUR_MILLIS = 60 * MINUTE_MILLIS;
+
+    /** 2019-01-01T00:00:00Z */
+    private static final long YEAR_START = 1546300800000L;
+    private static final long YEAR_END = YEAR_START + 365 * 24 * HOUR_MILLIS;
+
+    /** Zones with ordinary, half-hour and quarter-hour offsets and daylight saving rules */
+    private static final String[] ZONES = {
+            "America/Los_Angeles", "Australia/Lord_Howe", "Asia/Kathmandu", "UTC",
+            "Europe/Berlin", "America/St_Johns", "Pacific/Chatham"
+    };
+
+    /** Locales with different day and month names, and with their own digits */
+    private static final String[] LOCALES = {"en-US", "de-DE", "ar-EG", "fa-IR", "ja-JP"};
+
+    @Test
+    public void matchesSimpleDateFormatAcrossAYear() {
+        for (String zone : ZONES) {
+            for (String locale : LOCALES) {
+                Checker checker = new Checker(Locale.forLanguageTag(locale),
+                        TimeZone.getTimeZone(zone));
+                // An odd step, so every minute and second of the hour comes up
+                for (long time = YEAR_START; time < YEAR_END; time += 37 * MINUTE_MILLIS + 13001) {
+                    checker.check(time);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void matchesSimpleDateFormatAroundEveryTransition() {
+        for (String zone : ZONES) {
+            TimeZone timeZone = TimeZone.getTimeZone(zone);
+            for (String locale : LOCALES) {
+                Checker checker = new Checker(Locale.forLanguageTag(locale), timeZone);
+                for (long hour = YEAR_START; hour < YEAR_END; hour += HOUR_MILLIS) {
+                    if (timeZone.getOffset(hour) == timeZone.getOffset(hour + HOUR_MILLIS)) {
+                        continue;
+                    }
+                    // The last instant of the old offset and the first of the new one
+                    long transition = hour;
+                    while (timeZone.getOffset(transition) == timeZone.getOffset(hour)) {
+                        transition += 1000;
+                    }
+                    checker.check(transition - 1);
+                    checker.check(transition);
+                    // Every few seconds of the three hours around the transition
+                    for (long time = hour - HOUR_MILLIS; time < hour + 2 * HOUR_MILLIS;
+                         time += 7001) {
+                        checker.check(time);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void matchesSimpleDateFormatForOtherCalendarsAndEras() {
+        long[] times = {
+                Long.MIN_VALUE / 4, -12219292800001L, -12219292800000L, -1, 0,
+                951782400000L, 4102444800000L, UsgsFixtures.NEWEST_TIME
+        };
+        String[] locales = {"en-US", "th-TH", "ja-JP-u-ca-japanese", "ar-SA"};
+        for (String locale : locales) {
+            Checker checker = new Checker(Locale.forLanguageTag(locale),
+                    TimeZone.getTimeZone("Asia/Tokyo"));
+            for (long time : times) {
+                checker.check(time);
+            }
+        }
+    }
+
+    @Test
+    public void appendsToTheBuilder() {
+        EventDateFormatter formatter = new EventDateFormatter(Locale.US,
+                TimeZone.getTimeZone("America/Los_Angeles"));
+        StringBuilder text = new StringBuilder("Time: ");
+        formatter.format(UsgsFixtures.NEWEST_TIME, text);
+        assertEquals("Time: Sat, 22 Sep 2018 at 06:03:39 PDT", text.toString());
+        assertEquals("Sat, 22 Sep 2018 at 06:03:39 PDT",
+                formatter.format(UsgsFixtures.NEWEST_TIME));
+    }
+
+    /**
+     * Compares one formatter with its {@link SimpleDateFormat} reference.
+     */
+    private static final class Checker {
+
+        private final EventDateFormatter formatter;
+        private final SimpleDateFormat reference;
+        private final String description;
+
+        Checker(Locale locale, TimeZone timeZone) {
+            formatter = new EventDateFormatter(locale, timeZone);
+            reference = new SimpleDateFormat(PATTERN, locale);
+            reference.setTimeZone(timeZone);
+            description = locale.toLanguageTag() + " in " + timeZone.getID() + " at ";
+        }
+
+        void check(long time) {
+            assertEquals(description + time, reference.format(new Date(time)),
+                    formatter.format(time));
+        }
+    }
+}
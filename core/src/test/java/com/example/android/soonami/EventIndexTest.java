@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.soonami;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the answers of {@link EventIndex} with a scan over every row of the store, for
+ * points across the date line and near the poles, rows without a location, and time windows
+ * that start and end inside a block.
+ */
+public class EventIndexTest {
+
+    private static final int EVENT_COUNT = 3 * EventIndex.BLOCK_SIZE + 500;
+
+    /** Distances this close to a radius may land on either side of it through rounding */
+    private static final double EPSILON_KM = 1e-6;
+
+    /** Points to query: the date line, both poles and their surroundings, and Japan */
+    private static final double[][] POINTS = {
+            {0, 180}, {0, -179.9}, {-17.8, 179.5}, {90, 0}, {89.9, -120}, {-89.9, 45},
+            {38.3, 142.4}, {0, 0}
+    };
+
+    private static final double[] RADII_KM = {0, 100, 500, 2500, 25000};
+
+    private EventStore events;
+    private EventIndex index;
+
+    /** Times of the located events, newest first */
+    private long[] sortedTimes;
+
+    @Before
+    public void setUp() {
+        events = new EventStore();
+        Random random = new Random(11);
+        List<Long> times = new ArrayList<>();
+        long time = UsgsFixtures.NEWEST_TIME;
+        for (int i = 0; i < EVENT_COUNT; i++) {
+            time -= 1 + random.nextInt(600000);
+            times.add(time);
+        }
+        // Rows in no particular order, so the index has to sort them by time
+        Collections.shuffle(times, random);
+        int located = 0;
+        for (long eventTime : times) {
+            float latitude;
+            float longitude;
+            switch (random.nextInt(5)) {
+                case 0:
+                    // Across the date line
+                    latitude = random.nextFloat() * 40 - 20;
+                    longitude = random.nextBoolean() ? 180 - random.nextFloat() * 3
+                            : -180 + random.nextFloat() * 3;
+                    break;
+                case 1:
+                    // Near either pole
+                    latitude = (random.nextBoolean() ? 1 : -1) * (88 + random.nextFloat() * 2);
+                    longitude = random.nextFloat() * 360 - 180;
+                    break;
+                case 2:
+                    // Without a location, or only half of one
+                    latitude = random.nextBoolean() ? Float.NaN : 10;
+                    longitude = random.nextBoolean() ? Float.NaN : 20;
+                    if (!Float.isNaN(latitude) && !Float.isNaN(longitude)) {
+                        latitude = Float.NaN;
+                    }
+                    break;
+                default:
+                    latitude = random.nextFloat() * 180 - 90;
+                    longitude = random.nextFloat() * 360 - 180;
+                    break;
+            }
+            if (!Float.isNaN(latitude) && !Float.isNaN(longitude)) {
+                located++;
+            }
+            events.add("M 4.5", eventTime, random.nextInt(3) - 1, 4.5f, latitude, longitude,
+                    10);
+        }
+        index = new EventIndex(events);
+        assertEquals(located, index.size());
+
+        sortedTimes = new long[located];
+        int count = 0;
+        for (int row = 0; row < events.size(); row++) {
+            if (isLocated(row)) {
+                sortedTimes[count++] = events.getTime(row);
+            }
+        }
+        Arrays.sort(sortedTimes);
+        for (int i = 0; i < count / 2; i++) {
+            long swap = sortedTimes[i];
+            sortedTimes[i] = sortedTimes[count - 1 - i];
+            sortedTimes[count - 1 - i] = swap;
+        }
+    }
+
+    @Test
+    public void withinDistanceMatchesAScan() {
+        int[] out = new int[events.size()];
+        for (long[] window : windows()) {
+            for (double[] point : POINTS) {
+                for (double radius : RADII_KM) {
+                    for (boolean tsunamiOnly : new boolean[] {false, true}) {
+                        String query = Arrays.toString(point) + " " + radius + " km "
+                                + Arrays.toString(window) + " tsunamiOnly=" + tsunamiOnly;
+                        int count = index.withinDistance(point[0], point[1], radius, window[0],
+                                window[1], tsunamiOnly, out);
+                        assertEquals(query, count, index.countWithinDistance(point[0],
+                                point[1], radius, window[0], window[1], tsunamiOnly));
+                        assertSameRows(query, scanWithin(point, radius, window, tsunamiOnly),
+                                Arrays.copyOf(out, count), point, radius, window, tsunamiOnly);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void withinDistanceKeepsTheNewestWhenOutIsShort() {
+        double[] point = {0, 180};
+        int[] all = new int[events.size()];
+        int count = index.withinDistance(point[0], point[1], 2500, Long.MIN_VALUE,
+                Long.MAX_VALUE, false, all);
+        assertTrue(count > 20);
+        int[] out = new int[20];
+        assertEquals(20, index.withinDistance(point[0], point[1], 2500, Long.MIN_VALUE,
+                Long.MAX_VALUE, false, out));
+        assertEquals(Arrays.toString(Arrays.copyOf(all, 20)), Arrays.toString(out));
+        for (int i = 1; i < count; i++) {
+            assertTrue(events.getTime(all[i - 1]) > events.getTime(all[i]));
+        }
+    }
+
+    @Test
+    public void nearestMatchesAScan() {
+        int[] out = new int[25];
+        for (long[] window : windows()) {
+            for (double[] point : POINTS) {
+                for (boolean tsunamiOnly : new boolean[] {false, true}) {
+                    String query = Arrays.toString(point) + " " + Arrays.toString(window)
+                            + " tsunamiOnly=" + tsunamiOnly;
+                    int count = index.nearest(point[0], point[1], window[0], window[1],
+                            tsunamiOnly, out);
+                    double[] expected = scanDistances(point, window, tsunamiOnly);
+                    assertEquals(query, Math.min(out.length, expected.length), count);
+                    for (int i = 0; i < count; i++) {
+                        assertTrue(query, isLocated(out[i]));
+                        assertTrue(query, matches(out[i], window, tsunamiOnly));
+                        assertEquals(query + " #" + i, expected[i], distance(out[i], point),
+                                EPSILON_KM);
+                    }
+                }
+            }
+        }
+        assertEquals(0, index.nearest(0, 0, 0, 0, false, out));
+        assertEquals(0, index.nearest(0, 0, Long.MIN_VALUE, Long.MAX_VALUE, false, new int[0]));
+    }
+
+    @Test
+    public void anEmptyStoreFindsNothing() {
+        EventIndex empty = new EventIndex(new EventStore());
+        assertEquals(0, empty.size());
+        assertEquals(0, empty.withinDistance(0, 0, 25000, Long.MIN_VALUE, Long.MAX_VALUE,
+                false, new int[10]));
+        assertEquals(0, empty.countWithinDistance(0, 0, 25000, Long.MIN_VALUE,
+                Long.MAX_VALUE, false));
+        assertEquals(0, empty.nearest(0, 0, Long.MIN_VALUE, Long.MAX_VALUE, false,
+                new int[10]));
+    }
+
+    /**
+     * Returns time windows as start (inclusive) and end (exclusive): everything, and windows
+     * that start and end inside a block, within one block and across several, with ends on
+     * an event time so that event is left out.
+     */
+    private long[][] windows() {
+        int block = EventIndex.BLOCK_SIZE;
+        return new long[][] {
+                {Long.MIN_VALUE, Long.MAX_VALUE},
+                {sortedTimes[block / 2 + 300], sortedTimes[block / 2]},
+                {sortedTimes[2 * block + 100], sortedTimes[block - 100]},
+                {sortedTimes[sortedTimes.length - 1], sortedTimes[block + 7]},
+                {sortedTimes[block - 1], Long.MAX_VALUE},
+                {sortedTimes[5], sortedTimes[5]}
+        };
+    }
+
+    private int[] scanWithin(double[] point, double radiusKm, long[] window,
+                             boolean tsunamiOnly) {
+        int[] rows = new int[events.size()];
+        int count = 0;
+        for (int row = 0; row < events.size(); row++) {
+            if (isLocated(row) && matches(row, window, tsunamiOnly)
+                    && distance(row, point) <= radiusKm) {
+                rows[count++] = row;
+            }
+        }
+        return Arrays.copyOf(rows, count);
+    }
+
+    private double[] scanDistances(double[] point, long[] window, boolean tsunamiOnly) {
+        double[] distances = new double[events.size()];
+        int count = 0;
+        for (int row = 0; row < events.size(); row++) {
+            if (isLocated(row) && matches(row, window, tsunamiOnly)) {
+                distances[count++] = distance(row, point);
+            }
+        }
+        distances = Arrays.copyOf(distances, count);
+        Arrays.sort(distances);
+        return distances;
+    }
+
+    /**
+     * Checks that the index found the rows of the scan, newest first, leaving out only rows
+     * that lie on the radius within rounding.
+     */
+    private void assertSameRows(String query, int[] expected, int[] actual, double[] point,
+                                double radiusKm, long[] window, boolean tsunamiOnly) {
+        List<Integer> found = new ArrayList<>();
+        for (int i = 0; i < actual.length; i++) {
+            assertTrue(query, isLocated(actual[i]));
+            assertTrue(query, matches(actual[i], window, tsunamiOnly));
+            assertTrue(query, distance(actual[i], point) <= radiusKm + EPSILON_KM);
+            if (i > 0) {
+                assertTrue(query, events.getTime(actual[i - 1]) > events.getTime(actual[i]));
+            }
+            found.add(actual[i]);
+        }
+        for (int row : expected) {
+            if (distance(row, point) < radiusKm - EPSILON_KM) {
+                assertTrue(query + " missed row " + row, found.contains(row));
+            }
+        }
+    }
+
+    private boolean isLocated(int row) {
+        return !Float.isNaN(events.getLatitude(row)) && !Float.isNaN(events.getLongitude(row));
+    }
+
+    private boolean matches(int row, long[] window, boolean tsunamiOnly) {
+        long time = events.getTime(row);
+        return time >= window[0] && time < window[1]
+                && (!tsunamiOnly || events.getTsunamiAlert(row) == 1);
+    }
+
+    private double distance(int row, double[] point) {
+        return EventIndex.distanceKm(point[0], point[1], events.getLatitude(row),
+                events.getLongitude(row));
+    }
+}
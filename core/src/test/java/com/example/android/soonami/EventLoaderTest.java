@@ -0,0 +1,380 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.soonami;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs {@link EventLoader#sync()} against a fake USGS endpoint that honors "updatedafter",
+ * and checks the window each request asks for and how the answers are merged.
+ */
+public class EventLoaderTest {
+
+    private static final long MAX_AGE_MILLIS = 5 * 60 * 1000;
+    private static final long MINUTE_MILLIS = 60 * 1000;
+    private static final String QUERY = "/fdsnws/event/1/query?format=geojson";
+
+    private File directory;
+    private FakeUsgs usgs;
+    private FeedServer server;
+    private ManualClock clock;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("events", "");
+        directory.delete();
+        usgs = new FakeUsgs();
+        server = new FeedServer(usgs);
+        clock = new ManualClock(UsgsFixtures.NEWEST_TIME);
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+        new EventCache(directory, 0).clear();
+        directory.delete();
+    }
+
+    @Test
+    public void asksOnlyForEventsUpdatedSinceTheLastSync() throws IOException {
+        for (int i = 0; i < 50; i++) {
+            usgs.publish("us" + i, UsgsFixtures.NEWEST_TIME - i * MINUTE_MILLIS);
+        }
+        EventLoader loader = newLoader();
+        EventStore events = loader.sync();
+        assertEquals(50, events.size());
+        assertEquals(1, server.getRequestCount());
+        assertNull(usgs.windows.get(0));
+
+        // Two new events, and a revision of an old one
+        usgs.publish("us50", UsgsFixtures.NEWEST_TIME + MINUTE_MILLIS);
+        usgs.publish("us51", UsgsFixtures.NEWEST_TIME + 2 * MINUTE_MILLIS);
+        usgs.publish("us7", UsgsFixtures.NEWEST_TIME + 3 * MINUTE_MILLIS);
+        long newestUpdated = events.getNewestUpdated();
+
+        clock.advance(MAX_AGE_MILLIS - 1);
+        loader.sync();
+        assertEquals("a fresh copy is not synced", 1, server.getRequestCount());
+
+        clock.advance(1);
+        events = loader.sync();
+        assertEquals(2, server.getRequestCount());
+        assertEquals(Long.valueOf(newestUpdated), usgs.windows.get(1));
+        // The event at the edge of the window comes back and is merged, not duplicated
+        assertEquals(52, events.size());
+        int revised = events.indexOf("us7");
+        assertEquals(UsgsFixtures.NEWEST_TIME + 3 * MINUTE_MILLIS, events.getTime(revised));
+        assertEquals(usgs.titles.get("us7"), events.getTitle(revised));
+        assertEquals(UsgsFixtures.NEWEST_TIME + 3 * MINUTE_MILLIS + 600000,
+                events.getNewestUpdated());
+
+        // Nothing new: the window moves up to the newest revision and nothing changes
+        events = loader.sync(0);
+        assertEquals(3, server.getRequestCount());
+        assertEquals(Long.valueOf(events.getNewestUpdated()), usgs.windows.get(2));
+        assertEquals(52, events.size());
+    }
+
+    @Test
+    public void restartsFromTheWindowOfTheCachedCopy() throws IOException {
+        for (int i = 0; i < 20; i++) {
+            usgs.publish("us" + i, UsgsFixtures.NEWEST_TIME - i * MINUTE_MILLIS);
+        }
+        newLoader().sync();
+        long newestUpdated = newLoader().loadCached().getNewestUpdated();
+
+        usgs.publish("us20", UsgsFixtures.NEWEST_TIME + MINUTE_MILLIS);
+        clock.advance(MAX_AGE_MILLIS);
+        EventStore events = newLoader().sync();
+        assertEquals(2, server.getRequestCount());
+        assertEquals(Long.valueOf(newestUpdated), usgs.windows.get(1));
+        assertEquals(21, events.size());
+        assertEquals(21, newLoader().loadCached().size());
+    }
+
+    @Test
+    public void keepsTheCachedCopyWhenTheSyncFails() throws IOException {
+        usgs.publish("us0", UsgsFixtures.NEWEST_TIME);
+        EventLoader loader = newLoader();
+        loader.sync();
+        usgs.failing = true;
+        clock.advance(MAX_AGE_MILLIS);
+        try {
+            loader.sync();
+        } catch (IOException expected) {
+            // The server answered 500
+        }
+        assertEquals(1, newLoader().loadCached().size());
+    }
+
+    @Test
+    public void skipsNothingAfterATruncatedDelta() throws IOException {
+        for (int i = 0; i < 20; i++) {
+            usgs.publish("us" + i, UsgsFixtures.NEWEST_TIME - i * MINUTE_MILLIS);
+        }
+        EventLoader loader = newLoader();
+        long newestUpdated = loader.sync().getNewestUpdated();
+
+        // Newest first, as USGS sends them, so the half that arrives is the newest half
+        for (int i = 20; i < 30; i++) {
+            usgs.publish("us" + i, UsgsFixtures.NEWEST_TIME + (30 - i) * MINUTE_MILLIS);
+        }
+        usgs.truncating = true;
+        clock.advance(MAX_AGE_MILLIS);
+        try {
+            loader.sync();
+            fail("Accepted a truncated delta");
+        } catch (IOException expected) {
+            // The body broke off
+        }
+        assertEquals(20, newLoader().loadCached().size());
+
+        usgs.truncating = false;
+        EventStore events = loader.sync();
+        assertEquals(Long.valueOf(newestUpdated), usgs.windows.get(2));
+        assertEquals(30, events.size());
+        for (int i = 0; i < 30; i++) {
+            assertTrue("us" + i + " is missing", events.indexOf("us" + i) >= 0);
+        }
+        assertEquals(30, newLoader().loadCached().size());
+    }
+
+    @Test
+    public void downloadsShardsOnlyWhenStale() throws IOException {
+        for (int i = 0; i < 30; i++) {
+            usgs.publish("us" + i, UsgsFixtures.NEWEST_TIME - i * MINUTE_MILLIS);
+        }
+        FetchScheduler scheduler = new FetchScheduler(new HttpTransport(), 2);
+        try {
+            EventLoader loader = newShardedLoader(scheduler);
+            assertEquals(30, loader.sync().size());
+            assertEquals(4, server.getRequestCount());
+            // The event 15 minutes back sits on a shard boundary, comes back from both shards
+            // and is merged by id
+            assertEquals(31, usgs.served);
+
+            assertEquals(30, loader.sync().size());
+            assertEquals(4, server.getRequestCount());
+
+            // Once something is cached, a stale copy is synced with one small request
+            clock.advance(MAX_AGE_MILLIS);
+            assertEquals(30, loader.sync().size());
+            assertEquals(5, server.getRequestCount());
+            assertEquals(Long.valueOf(UsgsFixtures.NEWEST_TIME + 600000), usgs.windows.get(4));
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void retriesShardsWithoutMissingNewerEvents() throws IOException {
+        usgs.publish("us0", UsgsFixtures.NEWEST_TIME - 10 * MINUTE_MILLIS);
+        FetchScheduler scheduler = new FetchScheduler(new HttpTransport(), 2);
+        try {
+            EventLoader loader = newShardedLoader(scheduler);
+            usgs.failing = true;
+            try {
+                loader.sync();
+                fail("The shards were downloaded");
+            } catch (IOException expected) {
+                // The server answered 500
+            }
+
+            // An event after the end of the split range, which the retry still picks up
+            usgs.failing = false;
+            usgs.publish("us1", UsgsFixtures.NEWEST_TIME + 30 * MINUTE_MILLIS);
+            clock.advance(30 * MINUTE_MILLIS);
+            EventStore events = loader.sync();
+            assertEquals(2, events.size());
+            assertTrue(events.indexOf("us1") >= 0);
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void checksFreshnessBeforeDownloadingAnEmptyQueryAgain() throws IOException {
+        FetchScheduler scheduler = new FetchScheduler(new HttpTransport(), 2);
+        try {
+            EventLoader loader = newShardedLoader(scheduler);
+            assertEquals(0, loader.sync().size());
+            assertEquals(4, server.getRequestCount());
+            assertEquals(0, loader.sync().size());
+            assertEquals(0, newShardedLoader(scheduler).sync().size());
+            assertEquals(4, server.getRequestCount());
+
+            clock.advance(MAX_AGE_MILLIS);
+            loader.sync();
+            assertEquals(8, server.getRequestCount());
+            loader.sync(0);
+            assertEquals(12, server.getRequestCount());
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void syncsAnEmptyCopyWithoutShardsWhenAsked() throws IOException {
+        EventLoader loader = newLoader();
+        loader.sync();
+        assertEquals(1, server.getRequestCount());
+        loader.sync();
+        assertEquals(1, server.getRequestCount());
+        loader.sync(0);
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void addsTheWindowToTheQuery() throws IOException {
+        URL url = new URL("https://earthquake.usgs.gov/fdsnws/event/1/query?format=geojson");
+        assertEquals(url + "&updatedafter=2018-09-22T13:03:39.410",
+                EventLoader.createDeltaUrl(url, UsgsFixtures.NEWEST_TIME).toString());
+        URL bare = new URL("https://example.com/feed");
+        assertEquals(bare + "?updatedafter=1970-01-01T00:00:00.000",
+                EventLoader.createDeltaUrl(bare, 0).toString());
+        assertFalse(EventLoader.formatQueryTime(1).contains("Z"));
+    }
+
+    private EventLoader newLoader() throws IOException {
+        return new EventLoader(server.url(QUERY), new HttpTransport(),
+                new EventCache(directory, Long.MAX_VALUE), MAX_AGE_MILLIS, clock);
+    }
+
+    /**
+     * Returns a loader that does its first download as four shards covering the last hour.
+     */
+    private EventLoader newShardedLoader(FetchScheduler scheduler) throws IOException {
+        EventLoader loader = newLoader();
+        loader.setShards(scheduler, FetchScheduler.splitByTime(server.url(QUERY).toString(),
+                UsgsFixtures.NEWEST_TIME - 60 * MINUTE_MILLIS, UsgsFixtures.NEWEST_TIME, 4));
+        return loader;
+    }
+
+    /**
+     * Serves the latest revision of every published event, or only those updated at or
+     * after "updatedafter", and records the window of every request.
+     */
+    private static final class FakeUsgs implements FeedServer.Handler {
+
+        private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+        /** GeoJSON of the latest revision of each event, by id */
+        private final Map<String, String> features = new LinkedHashMap<>();
+
+        /** Time of the latest revision of each event, by id */
+        private final Map<String, Long> times = new LinkedHashMap<>();
+
+        /** Title of the latest revision of each event, by id */
+        final Map<String, String> titles = new LinkedHashMap<>();
+
+        /** Value of "updatedafter" of each request, or null if it had none */
+        final List<Long> windows = new ArrayList<>();
+
+        /** Number of features served, over all requests */
+        int served;
+
+        private final Random random = new Random(7);
+        volatile boolean failing;
+
+        /** Whether responses break off halfway through the body */
+        volatile boolean truncating;
+
+        /**
+         * Publishes a new revision of the given event, which the fixtures update ten minutes
+         * after the event happened.
+         */
+        synchronized void publish(String id, long time) {
+            StringBuilder feature = new StringBuilder();
+            UsgsFixtures.appendFeature(feature, id, time, random);
+            features.put(id, feature.toString());
+            times.put(id, time);
+            titles.put(id, new JSONObject(feature.toString()).getJSONObject("properties")
+                    .getString("title"));
+        }
+
+        @Override
+        public synchronized FeedServer.Reply handle(FeedServer.Request request)
+                throws IOException {
+            Long window = parseQueryTime(request.parameters.get("updatedafter"));
+            Long start = parseQueryTime(request.parameters.get("starttime"));
+            Long end = parseQueryTime(request.parameters.get("endtime"));
+            windows.add(window);
+            if (failing) {
+                return FeedServer.Reply.status(500);
+            }
+
+            StringBuilder json = new StringBuilder();
+            json.append("{\"type\":\"FeatureCollection\",\"features\":[");
+            boolean first = true;
+            for (Map.Entry<String, String> feature : features.entrySet()) {
+                long time = times.get(feature.getKey());
+                if ((window != null && time + 600000 < window)
+                        || (start != null && time < start) || (end != null && time > end)) {
+                    continue;
+                }
+                served++;
+                if (!first) {
+                    json.append(',');
+                }
+                first = false;
+                json.append(feature.getValue());
+            }
+            json.append("]}");
+            byte[] body = json.toString().getBytes(UTF_8);
+            return FeedServer.Reply.ok(truncating ? Arrays.copyOf(body, body.length / 2) : body);
+        }
+
+        /**
+         * Parses a time parameter, which USGS takes in UTC, or returns null if it is absent.
+         */
+        private static Long parseQueryTime(String value) throws IOException {
+            if (value == null) {
+                return null;
+            }
+            SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS", Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("UTC"));
+            try {
+                return format.parse(value).getTime();
+            } catch (ParseException e) {
+                throw new IOException("Bad updatedafter " + value);
+            }
+        }
+    }
+}
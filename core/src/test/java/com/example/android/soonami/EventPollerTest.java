@@ -0,0 +1,354 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.soonami;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs an {@link EventPoller} against a local feed, with a clock and a scheduler that only
+ * move when the test moves them, and checks how many requests reach the server and when the
+ * next poll is scheduled.
+ */
+public class EventPollerTest {
+
+    private static final long MINUTE_MILLIS = 60 * 1000;
+    private static final long HOUR_MILLIS = 60 * MINUTE_MILLIS;
+    private static final long DAY_MILLIS = 24 * HOUR_MILLIS;
+    private static final long MAX_AGE_MILLIS = 4 * MINUTE_MILLIS;
+    private static final long INTERVAL_MILLIS = 5 * MINUTE_MILLIS;
+    private static final long URGENT_INTERVAL_MILLIS = MINUTE_MILLIS;
+    private static final String QUERY = "/fdsnws/event/1/query?format=geojson";
+
+    private File directory;
+    private Feed feed;
+    private FeedServer server;
+    private ManualClock clock;
+    private ManualScheduler scheduler;
+    private EventPoller poller;
+    private final BlockingQueue<Result> results = new LinkedBlockingQueue<>();
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("events", "");
+        directory.delete();
+        feed = new Feed();
+        server = new FeedServer(feed);
+        clock = new ManualClock(UsgsFixtures.NEWEST_TIME);
+        scheduler = new ManualScheduler();
+    }
+
+    @After
+    public void tearDown() {
+        if (poller != null) {
+            poller.shutdown();
+        }
+        scheduler.shutdownNow();
+        server.close();
+        new EventCache(directory, 0).clear();
+        directory.delete();
+    }
+
+    @Test
+    public void joinsABurstOfRefreshesIntoOneRequest() throws Exception {
+        feed.publish("us1", clock.now() - HOUR_MILLIS, 4.5, 0);
+        feed.delayMillis = 300;
+        newPoller(newLoader());
+
+        for (Future<EventStore> future : burst(20)) {
+            assertEquals(1, future.get(10, TimeUnit.SECONDS).size());
+        }
+        assertEquals(1, server.getRequestCount());
+        assertEquals(1, poller.getSyncCount());
+
+        // While the copy is fresh a burst costs nothing on the network
+        for (Future<EventStore> future : burst(20)) {
+            future.get(10, TimeUnit.SECONDS);
+        }
+        assertEquals(1, server.getRequestCount());
+
+        clock.advance(MAX_AGE_MILLIS);
+        for (Future<EventStore> future : burst(20)) {
+            future.get(10, TimeUnit.SECONDS);
+        }
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void pollsUrgentlyWhileARecentEventIsStrongOrRaisedATsunamiAlert()
+            throws IOException {
+        // Too old to count, however strong
+        feed.publish("us1", clock.now() - 2 * DAY_MILLIS, 8.0, 1);
+        feed.publish("us2", clock.now() - HOUR_MILLIS, 5.0, 0);
+        newPoller(newLoader()).start();
+        assertEquals(2, nextResult().size);
+        assertEquals(INTERVAL_MILLIS, lastDelay());
+
+        feed.publish("us3", clock.now() - MINUTE_MILLIS, 7.5, 0);
+        clock.advance(INTERVAL_MILLIS);
+        assertTrue(scheduler.runScheduled());
+        assertEquals(3, nextResult().size);
+        assertEquals(URGENT_INTERVAL_MILLIS, lastDelay());
+
+        clock.advance(DAY_MILLIS);
+        assertTrue(scheduler.runScheduled());
+        assertEquals(3, nextResult().size);
+        assertEquals(INTERVAL_MILLIS, lastDelay());
+
+        feed.publish("us4", clock.now() - MINUTE_MILLIS, 4.0, 1);
+        assertTrue(scheduler.runScheduled());
+        assertEquals(4, nextResult().size);
+        assertEquals(URGENT_INTERVAL_MILLIS, lastDelay());
+        assertEquals(4, server.getRequestCount());
+    }
+
+    @Test
+    public void backsOffAfterFailuresUpToAnHour() throws IOException {
+        long[] backoffs = {30000, 60000, 120000, 240000, 480000, 960000, 1920000, 3600000,
+                3600000};
+        feed.status = 500;
+        newPoller(newLoader()).start();
+        for (int i = 0; i < backoffs.length; i++) {
+            Result result = nextResult();
+            assertNotNull(result.error);
+            assertEquals(backoffs[i], result.retryDelay);
+            assertEquals(backoffs[i], lastDelay());
+            if (i < backoffs.length - 1) {
+                assertTrue(scheduler.runScheduled());
+            }
+        }
+
+        feed.status = 200;
+        feed.publish("us1", clock.now() - HOUR_MILLIS, 4.5, 0);
+        assertTrue(scheduler.runScheduled());
+        assertEquals(1, nextResult().size);
+        assertEquals(INTERVAL_MILLIS, lastDelay());
+
+        // A success starts the backoff over
+        feed.status = 500;
+        assertTrue(scheduler.runScheduled());
+        assertEquals(EventPoller.MIN_BACKOFF_MILLIS, nextResult().retryDelay);
+        assertEquals(backoffs.length + 2, server.getRequestCount());
+    }
+
+    @Test
+    public void keepsPollingAfterAnUnexpectedException() throws Exception {
+        // The transport only speaks HTTP, so this fails with a ClassCastException
+        newPoller(new EventLoader(new URL("file:/events.geojson"), new HttpTransport(),
+                new EventCache(directory, Long.MAX_VALUE), MAX_AGE_MILLIS, clock)).start();
+        Result result = nextResult();
+        assertTrue(result.error.getCause() instanceof ClassCastException);
+        assertEquals(EventPoller.MIN_BACKOFF_MILLIS, result.retryDelay);
+
+        assertTrue(scheduler.runScheduled());
+        assertEquals(2 * EventPoller.MIN_BACKOFF_MILLIS, nextResult().retryDelay);
+        assertEquals(2, poller.getSyncCount());
+
+        // A refresh starts a sync of its own instead of handing back a failed one
+        try {
+            poller.requestRefresh().get(10, TimeUnit.SECONDS);
+            fail("The sync succeeded");
+        } catch (ExecutionException expected) {
+            // It failed like the others
+        }
+        assertEquals(3, poller.getSyncCount());
+    }
+
+    @Test
+    public void stopCancelsAFirstDownloadInShards() throws Exception {
+        feed.publish("us1", clock.now() - MINUTE_MILLIS, 4.5, 0);
+        feed.delayMillis = 60 * 1000;
+        FetchScheduler fetchScheduler = new FetchScheduler(new HttpTransport(), 4);
+        try {
+            EventLoader loader = newLoader();
+            loader.setShards(fetchScheduler, FetchScheduler.splitByTime(
+                    server.url(QUERY).toString(), clock.now() - HOUR_MILLIS, clock.now(), 4));
+            newPoller(loader).start();
+            awaitRequests(4);
+
+            long start = System.nanoTime();
+            poller.stop();
+            Result result = nextResult();
+            assertTrue(String.valueOf(result.error),
+                    result.error instanceof InterruptedIOException);
+            assertEquals(-1, result.retryDelay);
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+            assertNull("a cancelled download is not cached", loader.loadCached());
+        } finally {
+            fetchScheduler.shutdown();
+        }
+    }
+
+    private EventLoader newLoader() throws IOException {
+        return new EventLoader(server.url(QUERY), new HttpTransport(),
+                new EventCache(directory, Long.MAX_VALUE), MAX_AGE_MILLIS, clock);
+    }
+
+    private EventPoller newPoller(EventLoader loader) {
+        poller = new EventPoller(loader, clock, INTERVAL_MILLIS, URGENT_INTERVAL_MILLIS,
+                scheduler);
+        poller.setListener(new EventPoller.Listener() {
+            @Override
+            public void onEventsLoaded(EventStore events) {
+                results.add(new Result(events.size(), null, 0));
+            }
+
+            @Override
+            public void onLoadFailed(IOException error, long retryDelayMillis) {
+                results.add(new Result(-1, error, retryDelayMillis));
+            }
+        });
+        return poller;
+    }
+
+    /**
+     * Calls {@link EventPoller#requestRefresh()} from the given number of threads at once
+     * and returns the syncs they got.
+     */
+    private List<Future<EventStore>> burst(int threadCount) throws InterruptedException {
+        final CountDownLatch go = new CountDownLatch(1);
+        final List<Future<EventStore>> futures = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < threadCount; i++) {
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        go.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    Future<EventStore> future = poller.requestRefresh();
+                    synchronized (futures) {
+                        futures.add(future);
+                    }
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+        go.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(threadCount, futures.size());
+        return futures;
+    }
+
+    private Result nextResult() throws IOException {
+        try {
+            Result result = results.poll(10, TimeUnit.SECONDS);
+            assertNotNull("no sync finished", result);
+            return result;
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+    }
+
+    private long lastDelay() {
+        List<Long> delays = scheduler.getDelays();
+        return delays.get(delays.size() - 1);
+    }
+
+    private void awaitRequests(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (server.getRequestCount() < count) {
+            assertTrue("only " + server.getRequestCount() + " requests",
+                    System.nanoTime() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * What the listener was told after one sync.
+     */
+    private static final class Result {
+        final int size;
+        final IOException error;
+        final long retryDelay;
+
+        Result(int size, IOException error, long retryDelay) {
+            this.size = size;
+            this.error = error;
+            this.retryDelay = retryDelay;
+        }
+    }
+
+    /**
+     * Serves every published event, whatever the query asks for; merging by event id makes
+     * that harmless. The status and delay apply to every response.
+     */
+    private static final class Feed implements FeedServer.Handler {
+
+        private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+        /** GeoJSON of every event, by id */
+        private final Map<String, String> features = new LinkedHashMap<>();
+
+        volatile int status = 200;
+        volatile long delayMillis;
+
+        synchronized void publish(String id, long time, double magnitude, int tsunami) {
+            features.put(id, "{\"type\":\"Feature\",\"properties\":{\"mag\":" + magnitude
+                    + ",\"time\":" + time + ",\"updated\":" + time + ",\"tsunami\":" + tsunami
+                    + ",\"title\":\"M " + magnitude + " - " + id + "\"},\"geometry\":"
+                    + "{\"type\":\"Point\",\"coordinates\":[1.5,2.5,10.0]},\"id\":\"" + id
+                    + "\"}");
+        }
+
+        @Override
+        public synchronized FeedServer.Reply handle(FeedServer.Request request) {
+            if (status != 200) {
+                return FeedServer.Reply.status(status).delay(delayMillis);
+            }
+            StringBuilder json = new StringBuilder();
+            json.append("{\"type\":\"FeatureCollection\",\"features\":[");
+            boolean first = true;
+            for (String feature : features.values()) {
+                if (!first) {
+                    json.append(',');
+                }
+                first = false;
+                json.append(feature);
+            }
+            json.append("]}");
+            return FeedServer.Reply.ok(json.toString().getBytes(UTF_8)).delay(delayMillis);
+        }
+    }
+}
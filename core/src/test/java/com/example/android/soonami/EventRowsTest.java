@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.soonami;
+
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Builds {@link EventRows} snapshots one after another from a changing store and checks
+ * what is reused, what is formatted again, and that rows keep their identity.
+ */
+public class EventRowsTest {
+
+    private static final String[] LABELS = {"Unknown", "No", "Yes"};
+    private static final long MINUTE_MILLIS = 60 * 1000;
+
+    private final EventDateFormatter formatter =
+            new EventDateFormatter(Locale.US, TimeZone.getTimeZone("UTC"));
+
+    @Test
+    public void returnsThePreviousSnapshotForAnUnchangedStore() {
+        EventStore events = newStore(20);
+        EventRows first = EventRows.build(events, formatter, LABELS, null);
+        assertEquals(20, first.getFormattedCount());
+        assertSame(first, EventRows.build(events, formatter, LABELS, first));
+
+        // A store that was synced again without news is as good as unchanged
+        events.putAll(newStore(20));
+        assertSame(first, EventRows.build(events, formatter, LABELS, first));
+        assertEquals(0, EventRows.build(new EventStore(), formatter, LABELS, null).size());
+    }
+
+    @Test
+    public void rebuildsChangedRowsAndReusesTheRest() {
+        EventStore events = newStore(20);
+        EventRows first = EventRows.build(events, formatter, LABELS, null);
+
+        // A revision of us5, which moves it to the top, and a new event
+        events.put("us5", "M 6.0 - revised", base() + MINUTE_MILLIS, base() + 2 * MINUTE_MILLIS,
+                1, 6.0f, 0, 0, 10);
+        events.put("us20", "M 4.0 - new", base() - 30 * MINUTE_MILLIS,
+                base() - 30 * MINUTE_MILLIS, 0, 4.0f, 0, 0, 10);
+        EventRows second = EventRows.build(events, formatter, LABELS, first);
+        assertNotSame(first, second);
+        assertEquals(21, second.size());
+        assertEquals(2, second.getFormattedCount());
+
+        assertEquals("us5", second.getId(0));
+        assertEquals("M 6.0 - revised", second.getTitle(0));
+        assertEquals(formatter.format(base() + MINUTE_MILLIS), second.getDate(0));
+        assertEquals("Yes", second.getTsunamiLabel(0));
+        for (int row = 0; row < second.size(); row++) {
+            String id = second.getId(row);
+            int previousRow = first.indexOf(id);
+            if (!id.equals("us5") && previousRow >= 0) {
+                assertSame(first.getDate(previousRow), second.getDate(row));
+                assertSame(first.getTitle(previousRow), second.getTitle(row));
+            }
+        }
+    }
+
+    @Test
+    public void keepsRowsIdentifiableAcrossSnapshots() {
+        EventStore events = newStore(20);
+        events.add("M 3.0 - no id", base() - 25 * MINUTE_MILLIS, -1, 3.0f, 0, 0, 10);
+        EventRows first = EventRows.build(events, formatter, LABELS, null);
+        events.put("us20", "M 4.0 - new", base() + MINUTE_MILLIS, base() + MINUTE_MILLIS, 0,
+                4.0f, 0, 0, 10);
+        EventRows second = EventRows.build(events, formatter, LABELS, first);
+
+        for (int row = 0; row < first.size(); row++) {
+            String id = first.getId(row);
+            int next = id == null ? row + 1 : second.indexOf(id);
+            // The new event went to the top and pushed every other row down by one
+            assertEquals(row + 1, next);
+            assertEquals(first.getItemId(row), second.getItemId(next));
+        }
+        assertEquals(-1, second.indexOf(null));
+        assertEquals(-1, second.indexOf("us99"));
+        assertEquals("Unknown", second.getTsunamiLabel(second.size() - 1));
+        assertEquals(base() - 25 * MINUTE_MILLIS, second.getItemId(second.size() - 1));
+    }
+
+    @Test
+    public void findsRowsFromSeveralThreadsAtOnce() throws InterruptedException {
+        final EventRows rows = EventRows.build(newStore(2000), formatter, LABELS, null);
+        final AtomicInteger wrong = new AtomicInteger();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int pass = 0; pass < 20; pass++) {
+                        for (int i = 0; i < rows.size(); i++) {
+                            if (rows.indexOf("us" + i) != i) {
+                                wrong.incrementAndGet();
+                            }
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, wrong.get());
+    }
+
+    /**
+     * Returns a store of the given number of events, us0 the newest and one minute apart.
+     */
+    private static EventStore newStore(int count) {
+        EventStore events = new EventStore();
+        for (int i = count - 1; i >= 0; i--) {
+            long time = base() - i * MINUTE_MILLIS;
+            events.put("us" + i, "M 4." + i % 10 + " - event " + i, time, time, i % 2, 4.5f,
+                    0, 0, 10);
+        }
+        return events;
+    }
+
+    private static long base() {
+        return UsgsFixtures.NEWEST_TIME;
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.soonami;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Writes events with {@link EventSnapshotWriter} and reads them back with
+ * {@link EventSnapshotReader}, directly and through an {@link EventCache} file, including
+ * the awkward values a feed can hold and snapshots cut off at every byte.
+ */
+public class EventSnapshotTest {
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("events", "");
+        directory.delete();
+    }
+
+    @After
+    public void tearDown() {
+        new EventCache(directory, 0).clear();
+        directory.delete();
+    }
+
+    @Test
+    public void roundTripsAwkwardValues() throws IOException {
+        EventStore events = awkwardEvents();
+        assertSameRows(events, read(write(events)));
+    }
+
+    @Test
+    public void roundTripsSeveralBlocks() throws IOException {
+        EventStore events = new EventStore();
+        long time = UsgsFixtures.NEWEST_TIME;
+        for (int i = 0; i < 2 * EventSnapshotWriter.BLOCK_SIZE + 500; i++) {
+            // Mostly newest first, now and then a step back up
+            time += i % 7 == 0 ? 90000 : -60000;
+            events.put(i % 2 == 0 ? null : "us" + i, "M 4." + i % 10 + " - region " + i % 13,
+                    time, time + i, i % 3 - 1, i / 100f, i % 90, -i % 180,
+                    i % 5 == 0 ? Float.NaN : i);
+        }
+        byte[] snapshot = write(events);
+        assertSameRows(events, read(snapshot));
+
+        // Titles keep their numbers across blocks, and only the ones asked for are decoded
+        EventSnapshotReader reader = new EventSnapshotReader(ByteBuffer.wrap(snapshot));
+        Map<String, Integer> titleIds = new HashMap<>();
+        int row = 0;
+        while (reader.next()) {
+            String title = events.getTitle(row);
+            Integer titleId = titleIds.get(title);
+            if (titleId == null) {
+                titleIds.put(title, reader.getTitleId());
+            } else {
+                assertEquals(titleId.intValue(), reader.getTitleId());
+            }
+            assertEquals(events.getTime(row), reader.getTime());
+            assertEquals(events.getTsunamiAlert(row), reader.getTsunamiAlert());
+            row++;
+        }
+        assertEquals(events.size(), row);
+        assertEquals(130, titleIds.size());
+    }
+
+    @Test
+    public void roundTripsAnEmptySnapshot() throws IOException {
+        byte[] snapshot = write(new EventStore());
+        assertEquals(9, snapshot.length);
+        EventSnapshotReader reader = new EventSnapshotReader(ByteBuffer.wrap(snapshot));
+        assertFalse(reader.next());
+        assertFalse(reader.next());
+        assertEquals(0, read(snapshot).size());
+    }
+
+    @Test
+    public void rejectsASnapshotCutOffAnywhere() throws IOException {
+        EventStore events = awkwardEvents();
+        for (int i = 0; i < EventSnapshotWriter.BLOCK_SIZE + 10; i++) {
+            events.put(null, "M 4.5 - repeated", i, i, 0, 4.5f, 1, 2, 3);
+        }
+        byte[] snapshot = write(events);
+        for (int length = 0; length < snapshot.length; length++) {
+            try {
+                new EventSnapshotReader(ByteBuffer.wrap(snapshot, 0, length))
+                        .readInto(new EventStore());
+                fail("Read a snapshot cut off at " + length + " of " + snapshot.length);
+            } catch (IOException expected) {
+                // The snapshot is truncated
+            }
+        }
+    }
+
+    @Test
+    public void rejectsAnotherFormatOrVersion() throws IOException {
+        byte[] snapshot = write(awkwardEvents());
+        snapshot[0] ^= 1;
+        assertUnreadable(snapshot);
+        snapshot[0] ^= 1;
+        snapshot[7] = EventSnapshotWriter.VERSION + 1;
+        assertUnreadable(snapshot);
+    }
+
+    @Test
+    public void roundTripsThroughTheCache() throws IOException {
+        EventStore events = awkwardEvents();
+        EventCache cache = new EventCache(directory, Long.MAX_VALUE);
+        cache.put("https://example.com/a", events, null, "", 42);
+        EventCache.Entry entry = new EventCache(directory, Long.MAX_VALUE)
+                .get("https://example.com/a");
+        assertNull(entry.etag);
+        assertEquals("", entry.lastModified);
+        assertEquals(42, entry.fetchedAt);
+        assertSameRows(events, entry.events);
+
+        cache.put("https://example.com/a", new EventStore(), null, null, 43);
+        entry = cache.get("https://example.com/a");
+        assertEquals(0, entry.events.size());
+        assertEquals(43, entry.fetchedAt);
+    }
+
+    @Test
+    public void dropsACacheFileCutOffAnywhere() throws IOException {
+        EventCache cache = new EventCache(directory, Long.MAX_VALUE);
+        cache.put("https://example.com/a", awkwardEvents(), "\"v1\"", null, 1);
+        File file = directory.listFiles()[0];
+        byte[] bytes = readFile(file);
+        for (int length = 0; length < bytes.length; length++) {
+            FileOutputStream out = new FileOutputStream(file);
+            try {
+                out.write(bytes, 0, length);
+            } finally {
+                out.close();
+            }
+            assertNull("read a file cut off at " + length, cache.get("https://example.com/a"));
+            assertFalse(file.exists());
+        }
+
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(bytes);
+        out.close();
+        assertNotNull(cache.get("https://example.com/a"));
+    }
+
+    /**
+     * Returns events with the values that are easy to get wrong: no id and an empty one,
+     * null and empty titles, NaN and infinite floats, negative zero, every tsunami alert,
+     * times that go backwards, update times before the event, extreme times and characters
+     * outside the Basic Multilingual Plane.
+     */
+    private static EventStore awkwardEvents() {
+        EventStore events = new EventStore();
+        events.put(null, "M 4.5 - no id", 1000, 1000, -1, Float.NaN, Float.NaN, Float.NaN,
+                Float.NaN);
+        events.put("us1", null, 500, 400, 0, 4.5f, -0f, 180f, 0f);
+        events.put("", "", 0, 0, 1, Float.POSITIVE_INFINITY, 90f, -180f, -1.5f);
+        events.put("us𝒳日本", "M 6.1 - Sea of 𝒳, 日本", Long.MAX_VALUE, Long.MIN_VALUE, 1,
+                Float.MIN_VALUE, Float.MAX_VALUE, -Float.MAX_VALUE, Float.NEGATIVE_INFINITY);
+        events.put("us2", "M 4.5 - no id", -UsgsFixtures.NEWEST_TIME,
+                -UsgsFixtures.NEWEST_TIME + 1, 0, 7.5f, 1, 2, 3);
+        events.put(null, "M 4.5 - no id", UsgsFixtures.NEWEST_TIME, UsgsFixtures.NEWEST_TIME,
+                -1, 2.5f, Float.NaN, 0f, Float.NaN);
+        return events;
+    }
+
+    private static byte[] write(EventStore events) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        EventSnapshotWriter writer = new EventSnapshotWriter(bytes);
+        writer.addAll(events);
+        writer.close();
+        return bytes.toByteArray();
+    }
+
+    private static EventStore read(byte[] snapshot) throws IOException {
+        EventStore events = new EventStore();
+        int count = new EventSnapshotReader(ByteBuffer.wrap(snapshot)).readInto(events);
+        assertEquals(events.size(), count);
+        return events;
+    }
+
+    private static void assertUnreadable(byte[] snapshot) {
+        try {
+            read(snapshot);
+            fail("Read a snapshot of another format");
+        } catch (IOException expected) {
+            // The header is not ours
+        }
+    }
+
+    private static void assertSameRows(EventStore expected, EventStore actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int row = 0; row < expected.size(); row++) {
+            assertEquals(expected.getId(row), actual.getId(row));
+            assertEquals(expected.getTitle(row), actual.getTitle(row));
+            assertEquals(expected.getTime(row), actual.getTime(row));
+            assertEquals(expected.getUpdated(row), actual.getUpdated(row));
+            assertEquals(expected.getTsunamiAlert(row), actual.getTsunamiAlert(row));
+            assertSameFloat(expected.getMagnitude(row), actual.getMagnitude(row));
+            assertSameFloat(expected.getLatitude(row), actual.getLatitude(row));
+            assertSameFloat(expected.getLongitude(row), actual.getLongitude(row));
+            assertSameFloat(expected.getDepth(row), actual.getDepth(row));
+        }
+    }
+
+    /** Tells NaN equal to itself and negative zero apart from zero */
+    private static void assertSameFloat(float expected, float actual) {
+        assertEquals(Float.floatToIntBits(expected), Float.floatToIntBits(actual));
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            byte[] bytes = new byte[(int) in.length()];
+            in.readFully(bytes);
+            return bytes;
+        } finally {
+            in.close();
+        }
+    }
+}
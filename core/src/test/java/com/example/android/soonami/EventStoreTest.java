@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.soonami;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Checks the memory {@link EventStore} takes for a large feed against a {@code List<Event>},
+ * and that its queries do not allocate.
+ */
+public class EventStoreTest {
+
+    private static final int EVENT_COUNT = 100000;
+
+    private static final String[] PLACES = {
+            "Kermadec Islands, New Zealand", "Fiji region", "south of Alaska",
+            "near the east coast of Honshu, Japan", "offshore Bio-Bio, Chile",
+            "Papua New Guinea", "Sulawesi, Indonesia", "Oaxaca, Mexico", "Tōhoku, 日本"
+    };
+
+    @Test
+    public void usesWellBelowAListOfEvents() {
+        long before = usedMemory();
+        List<Event> list = new ArrayList<>();
+        Random random = new Random(1);
+        for (int i = 0; i < EVENT_COUNT; i++) {
+            // Each title is a String of its own, as a parser creates it
+            list.add(new Event(title(random), time(i), random.nextInt(2), 4.5f, -20.1f,
+                    178.2f, 10f));
+        }
+        long listBytes = usedMemory() - before;
+        assertEquals(EVENT_COUNT, list.size());
+        list = null;
+
+        before = usedMemory();
+        EventStore store = new EventStore();
+        random = new Random(1);
+        for (int i = 0; i < EVENT_COUNT; i++) {
+            store.add(title(random), time(i), random.nextInt(2), 4.5f, -20.1f, 178.2f, 10f);
+        }
+        store.latest(new int[1]);
+        long storeBytes = usedMemory() - before;
+        assertEquals(EVENT_COUNT, store.size());
+
+        String sizes = String.format(Locale.US, "store %d bytes per event, list %d",
+                storeBytes / EVENT_COUNT, listBytes / EVENT_COUNT);
+        assertTrue(sizes, storeBytes * 5 < listBytes * 4);
+    }
+
+    @Test
+    public void sharedTitlesAreStoredOnce() {
+        EventStore store = new EventStore();
+        for (int i = 0; i < EVENT_COUNT; i++) {
+            store.add("M 4.5 - " + (i % 100) + "km SSW of Fiji region", time(i), 0, 4.5f,
+                    -20.1f, 178.2f, 10f);
+        }
+        assertEquals(100, store.getTitlePool().size());
+        assertEquals("M 4.5 - 42km SSW of Fiji region", store.getTitle(142));
+    }
+
+    @Test
+    public void queriesDoNotAllocate() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        assumeTrue(allocations.isThreadAllocatedMemorySupported());
+        allocations.setThreadAllocatedMemoryEnabled(true);
+
+        EventStore store = new EventStore();
+        Random random = new Random(2);
+        for (int i = 0; i < EVENT_COUNT; i++) {
+            store.add(title(random), time(i), random.nextInt(10) == 0 ? 1 : 0, 4.5f, -20.1f,
+                    178.2f, 10f);
+        }
+        int[] out = new int[1000];
+        long start = time(EVENT_COUNT / 2);
+        long end = time(EVENT_COUNT / 4);
+        // Builds the time index, and warms the queries up
+        for (int i = 0; i < 100; i++) {
+            query(store, out, start, end);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long allocated = allocations.getThreadAllocatedBytes(threadId);
+        int found = 0;
+        for (int i = 0; i < 1000; i++) {
+            found += query(store, out, start, end);
+        }
+        allocated = allocations.getThreadAllocatedBytes(threadId) - allocated;
+        assertTrue(found > 0);
+        // Leaves room for the bookkeeping of the measurement itself
+        assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+    }
+
+    @Test
+    public void unorderedRowsAreReturnedNewestFirst() {
+        EventStore store = new EventStore();
+        long[] times = {5, 1, 9, 3, 7, 3};
+        for (long time : times) {
+            store.add("M " + time, time, 0, Float.NaN, Float.NaN, Float.NaN, Float.NaN);
+        }
+        int[] out = new int[times.length];
+        assertEquals(times.length, store.latest(out));
+        long previous = Long.MAX_VALUE;
+        for (int row : out) {
+            assertTrue(store.getTime(row) <= previous);
+            previous = store.getTime(row);
+        }
+        assertEquals(3, store.timeRange(3, 7, out));
+        assertEquals(3, store.countTimeRange(3, 7));
+    }
+
+    private static int query(EventStore store, int[] out, long start, long end) {
+        return store.latest(out) + store.tsunamiOnly(out) + store.timeRange(start, end, out)
+                + store.countTimeRange(start, end);
+    }
+
+    private static String title(Random random) {
+        return String.format(Locale.US, "M %.1f - %dkm SSW of %s",
+                2.5 + random.nextInt(60) / 10.0, 1 + random.nextInt(300),
+                PLACES[random.nextInt(PLACES.length)]);
+    }
+
+    /** Time of the given event, newest first */
+    private static long time(int index) {
+        return UsgsFixtures.NEWEST_TIME - index * 60000L;
+    }
+
+    /**
+     * Returns the bytes of heap in use once garbage collection has settled.
+     */
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.soonami;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks {@link EventStreamParser} against {@link QueryUtils#extractFeatureFromJson}, which
+ * builds the whole {@link JSONObject} tree, on large USGS-shaped responses.
+ */
+public class EventStreamParserTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** About 5 MB of GeoJSON */
+    private static final int LARGE_EVENT_COUNT = 5000;
+
+    @Test
+    public void firstEventMatchesExtractFeatureFromJson() throws Exception {
+        String json = UsgsFixtures.responseString(LARGE_EVENT_COUNT, 1);
+        Event expected = QueryUtils.extractFeatureFromJson(json);
+        Event actual = EventStreamParser.readFirstEvent(
+                new ByteArrayInputStream(json.getBytes(UTF_8)));
+        assertSameEvent(expected, actual);
+    }
+
+    @Test
+    public void everyEventMatchesExtractFeatureFromJson() throws Exception {
+        String json = UsgsFixtures.responseString(LARGE_EVENT_COUNT, 2);
+        JSONArray features = new JSONObject(json).getJSONArray("features");
+        EventStreamParser parser =
+                new EventStreamParser(new ByteArrayInputStream(json.getBytes(UTF_8)));
+        for (int i = 0; i < features.length(); i++) {
+            // extractFeatureFromJson only reads the first feature, so each feature is handed
+            // to it in a response of its own
+            String single = "{\"features\":[" + features.getJSONObject(i) + "]}";
+            assertSameEvent(QueryUtils.extractFeatureFromJson(single), parser.next());
+        }
+        assertNull(parser.next());
+    }
+
+    @Test
+    public void readIntoMatchesNext() throws IOException {
+        byte[] json = UsgsFixtures.response(LARGE_EVENT_COUNT, 3);
+        EventStore store = new EventStore();
+        int count = new EventStreamParser(new ByteArrayInputStream(json)).readInto(store);
+        assertEquals(LARGE_EVENT_COUNT, count);
+        assertEquals(LARGE_EVENT_COUNT, store.size());
+
+        EventStreamParser parser = new EventStreamParser(new ByteArrayInputStream(json));
+        for (int row = 0; row < store.size(); row++) {
+            assertSameEvent(parser.next(), store.getEvent(row));
+            assertEquals("us" + (1000 + row) + "abcd", store.getId(row));
+        }
+    }
+
+    @Test
+    public void firstEventReadsOnlyTheStartOfTheResponse() throws IOException {
+        byte[] json = UsgsFixtures.response(LARGE_EVENT_COUNT, 4);
+        CountingStream in = new CountingStream(new ByteArrayInputStream(json));
+        new EventStreamParser(in).next();
+        assertTrue("read " + in.count + " of " + json.length + " bytes",
+                in.count <= 2 * HttpTransport.BUFFER_SIZE);
+    }
+
+    @Test
+    public void decodesCharactersOutsideTheBasicMultilingualPlane() throws IOException {
+        String title = "M 6.1 - Sea of 𝒳, 日本";
+        byte[] json = ("{\"features\":[{\"properties\":{\"title\":\"" + title
+                + "\",\"time\":1,\"tsunami\":0}}]}").getBytes(UTF_8);
+        assertEquals(title,
+                EventStreamParser.readFirstEvent(new ByteArrayInputStream(json)).title);
+    }
+
+    @Test
+    public void rejectsContentAfterTheResponse() throws IOException {
+        String[] responses = {
+                "{\"features\":[]} trailing",
+                "{\"features\":[],\"bbox\":[1,2]}{}",
+                "{\"metadata\":{}} 1"
+        };
+        for (String response : responses) {
+            EventStreamParser parser = new EventStreamParser(
+                    new ByteArrayInputStream(response.getBytes(UTF_8)));
+            try {
+                parser.readInto(new EventStore());
+                fail("Accepted " + response);
+            } catch (IOException expected) {
+                // The response is malformed
+            }
+        }
+    }
+
+    @Test
+    public void acceptsPropertiesAfterTheFeatures() throws IOException {
+        byte[] json = ("{\"features\":[{\"properties\":{\"title\":\"a\",\"time\":1}}],"
+                + "\"bbox\":[1,2,3],\"extra\":{\"x\":[null]}}\n").getBytes(UTF_8);
+        EventStreamParser parser = new EventStreamParser(new ByteArrayInputStream(json));
+        assertEquals("a", parser.next().title);
+        assertNull(parser.next());
+    }
+
+    private static void assertSameEvent(Event expected, Event actual) {
+        assertEquals(expected.title, actual.title);
+        assertEquals(expected.time, actual.time);
+        assertEquals(expected.tsunamiAlert, actual.tsunamiAlert);
+        assertEquals(expected.magnitude, actual.magnitude, 0f);
+        assertEquals(expected.latitude, actual.latitude, 0f);
+        assertEquals(expected.longitude, actual.longitude, 0f);
+        assertEquals(expected.depth, actual.depth, 0f);
+    }
+
+    /**
+     * Counts the bytes read from a stream.
+     */
+    private static final class CountingStream extends FilterInputStream {
+        long count;
+
+        CountingStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+    }
+}
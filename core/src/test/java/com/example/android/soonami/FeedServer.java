@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.soonami;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A local HTTP server that stands in for the USGS endpoint in the tests. Every request is
+ * answered by a {@link Handler}, and the server records the requests, the connections they
+ * came in on and the body bytes it sent, so a test can check what went over the wire.
+ *
+ * The JDK server closes the connection after a response without a body, such as a 304, so
+ * connection reuse can only be checked across responses that have one.
+ */
+final class FeedServer implements Closeable {
+
+    /**
+     * {@link Handler} answers the requests of a {@link FeedServer}, on the server's threads.
+     */
+    interface Handler {
+        Reply handle(Request request) throws IOException;
+    }
+
+    /**
+     * {@link Request} is a request the server received.
+     */
+    static final class Request {
+
+        /** Path of the request URL */
+        final String path;
+
+        /** Decoded query parameters, in the order they were sent */
+        final Map<String, String> parameters = new LinkedHashMap<>();
+
+        /** Request headers by lower-case name; only the first value of each is kept */
+        final Map<String, String> headers = new LinkedHashMap<>();
+
+        Request(HttpExchange exchange) throws IOException {
+            path = exchange.getRequestURI().getPath();
+            String query = exchange.getRequestURI().getRawQuery();
+            if (query != null) {
+                for (String parameter : query.split("&")) {
+                    int equals = parameter.indexOf('=');
+                    parameters.put(URLDecoder.decode(parameter.substring(0, equals), "UTF-8"),
+                            URLDecoder.decode(parameter.substring(equals + 1), "UTF-8"));
+                }
+            }
+            for (Map.Entry<String, List<String>> header : exchange.getRequestHeaders().entrySet()) {
+                headers.put(header.getKey().toLowerCase(Locale.US), header.getValue().get(0));
+            }
+        }
+
+        String header(String name) {
+            return headers.get(name.toLowerCase(Locale.US));
+        }
+    }
+
+    /**
+     * {@link Reply} is the response a {@link Handler} gives to a request.
+     */
+    static final class Reply {
+
+        final int code;
+        final byte[] body;
+        final Map<String, String> headers = new LinkedHashMap<>();
+        long delayMillis;
+        long stallMillis;
+
+        private Reply(int code, byte[] body) {
+            this.code = code;
+            this.body = body;
+        }
+
+        /** A 200 response with the given body */
+        static Reply ok(byte[] body) {
+            return new Reply(200, body);
+        }
+
+        /** A response with the given code and no body */
+        static Reply status(int code) {
+            return new Reply(code, new byte[0]);
+        }
+
+        /** A 200 response with the given body gzipped, as USGS sends it to clients that ask */
+        static Reply gzipped(byte[] body) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+            gzip.write(body);
+            gzip.close();
+            return ok(bytes.toByteArray()).header("Content-Encoding", "gzip");
+        }
+
+        Reply header(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+
+        /** Makes the server wait the given time before it sends the response */
+        Reply delay(long millis) {
+            delayMillis = millis;
+            return this;
+        }
+
+        /** Makes the server wait the given time between the headers and the body */
+        Reply stall(long millis) {
+            stallMillis = millis;
+            return this;
+        }
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final List<Request> requests = new ArrayList<>();
+    private final Set<InetSocketAddress> connections = new HashSet<>();
+    private long bytesSent;
+
+    /**
+     * Starts a server on a free local port.
+     */
+    FeedServer(final Handler handler) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    Request request = new Request(exchange);
+                    synchronized (FeedServer.this) {
+                        requests.add(request);
+                        connections.add(exchange.getRemoteAddress());
+                    }
+                    Reply reply = handler.handle(request);
+                    if (reply.delayMillis > 0) {
+                        Thread.sleep(reply.delayMillis);
+                    }
+                    for (Map.Entry<String, String> header : reply.headers.entrySet()) {
+                        exchange.getResponseHeaders().set(header.getKey(), header.getValue());
+                    }
+                    exchange.sendResponseHeaders(reply.code,
+                            reply.body.length == 0 ? -1 : reply.body.length);
+                    if (reply.body.length > 0) {
+                        OutputStream out = exchange.getResponseBody();
+                        if (reply.stallMillis > 0) {
+                            out.flush();
+                            Thread.sleep(reply.stallMillis);
+                        }
+                        out.write(reply.body);
+                        out.close();
+                        synchronized (FeedServer.this) {
+                            bytesSent += reply.body.length;
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * Returns the URL of the given path and query on this server.
+     */
+    URL url(String file) throws IOException {
+        return new URL("http", "127.0.0.1", server.getAddress().getPort(), file);
+    }
+
+    synchronized int getRequestCount() {
+        return requests.size();
+    }
+
+    /**
+     * Returns the requests received so far, oldest first.
+     */
+    synchronized List<Request> getRequests() {
+        return new ArrayList<>(requests);
+    }
+
+    /**
+     * Returns the number of connections that requests came in on.
+     */
+    synchronized int getConnectionCount() {
+        return connections.size();
+    }
+
+    /**
+     * Returns the number of body bytes sent, as they went over the wire.
+     */
+    synchronized long getBytesSent() {
+        return bytesSent;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
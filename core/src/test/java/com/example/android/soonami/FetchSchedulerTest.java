@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.soonami;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs {@link FetchScheduler} against a local server and checks how shards are merged and
+ * that {@link FetchScheduler#cancel()} frees its threads, even from shards that are still
+ * waiting for their response.
+ */
+public class FetchSchedulerTest {
+
+    private static final String QUERY = "/fdsnws/event/1/query?format=geojson";
+
+    private FeedServer server;
+    private FetchScheduler scheduler;
+    private final ExecutorService caller = Executors.newSingleThreadExecutor();
+
+    @Before
+    public void setUp() throws IOException {
+        server = new FeedServer(new FeedServer.Handler() {
+            @Override
+            public FeedServer.Reply handle(FeedServer.Request request) {
+                // Each shard answers with the event of its start time, the slow one late
+                String start = request.parameters.get("starttime");
+                String json = "{\"features\":[{\"properties\":{\"title\":\"" + start
+                        + "\",\"time\":1},\"id\":\"" + start + "\"},{\"properties\":{"
+                        + "\"title\":\"shared\",\"time\":1},\"id\":\"shared\"}]}";
+                FeedServer.Reply reply = FeedServer.Reply.ok(json.getBytes());
+                return request.path.equals("/slow") ? reply.delay(60 * 1000) : reply;
+            }
+        });
+        scheduler = new FetchScheduler(new HttpTransport(), 1);
+    }
+
+    @After
+    public void tearDown() {
+        caller.shutdownNow();
+        scheduler.shutdown();
+        server.close();
+    }
+
+    @Test
+    public void mergesShardsInOrderAndKeepsSharedEventsOnce() throws IOException {
+        List<URL> shards = FetchScheduler.splitByTime(server.url(QUERY).toString(), 0,
+                3 * 60 * 60 * 1000L, 3);
+        EventStore events = scheduler.fetchAll(shards);
+        assertEquals(4, events.size());
+        assertEquals("1970-01-01T02:00:00.000", events.getTitle(0));
+        assertEquals("shared", events.getTitle(1));
+        assertEquals("1970-01-01T01:00:00.000", events.getTitle(2));
+        assertEquals("1970-01-01T00:00:00.000", events.getTitle(3));
+    }
+
+    @Test
+    public void cancelFreesAShardStillWaitingForItsResponse() throws Exception {
+        final List<URL> slow = Collections.singletonList(
+                new URL(server.url("/slow").toString() + "?starttime=a"));
+        Future<EventStore> fetch = caller.submit(new Callable<EventStore>() {
+            @Override
+            public EventStore call() throws IOException {
+                return scheduler.fetchAll(slow);
+            }
+        });
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (server.getRequestCount() == 0) {
+            assertTrue("the shard was not requested", System.nanoTime() < deadline);
+            Thread.sleep(10);
+        }
+
+        long start = System.nanoTime();
+        scheduler.cancel();
+        try {
+            fetch.get(10, TimeUnit.SECONDS);
+            fail("The slow shard was fetched");
+        } catch (ExecutionException e) {
+            assertTrue(String.valueOf(e.getCause()),
+                    e.getCause() instanceof InterruptedIOException);
+        }
+
+        // The only thread of the scheduler is free again well before the read timeout of ten
+        // seconds would have freed it
+        URL fast = new URL(server.url(QUERY).toString() + "&starttime=b");
+        assertEquals(2, scheduler.fetchAll(Arrays.asList(fast)).size());
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+    }
+}
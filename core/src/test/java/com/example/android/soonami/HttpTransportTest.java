@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.soonami;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Runs {@link HttpTransport} against a local server and checks what goes over the wire:
+ * the bytes of each body, the connections opened for a series of requests, and the memory
+ * allocated to fetch and parse a response.
+ */
+public class HttpTransportTest {
+
+    private FeedServer server;
+
+    @After
+    public void tearDown() {
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void asksForGzipAndUnpacksIt() throws IOException {
+        final byte[] json = UsgsFixtures.response(2000, 1);
+        server = new FeedServer(new FeedServer.Handler() {
+            @Override
+            public FeedServer.Reply handle(FeedServer.Request request) throws IOException {
+                return "gzip".equals(request.header("Accept-Encoding"))
+                        ? FeedServer.Reply.gzipped(json) : FeedServer.Reply.ok(json);
+            }
+        });
+        HttpTransport transport = new HttpTransport();
+        EventStore events = fetch(transport, server.url("/query"));
+
+        assertEquals(2000, events.size());
+        assertEquals(server.getBytesSent(), transport.getBytesReceived());
+        assertTrue("sent " + server.getBytesSent() + " of " + json.length + " bytes",
+                server.getBytesSent() * 3 < json.length);
+        EventStore expected = new EventStore();
+        new EventStreamParser(new ByteArrayInputStream(json)).readInto(expected);
+        for (int row = 0; row < expected.size(); row++) {
+            assertEquals(expected.getId(row), events.getId(row));
+            assertEquals(expected.getTitle(row), events.getTitle(row));
+        }
+    }
+
+    @Test
+    public void reusesOneConnectionForSuccessiveRequests() throws IOException {
+        final byte[] json = UsgsFixtures.response(100, 2);
+        server = new FeedServer(new FeedServer.Handler() {
+            @Override
+            public FeedServer.Reply handle(FeedServer.Request request) throws IOException {
+                return FeedServer.Reply.gzipped(json);
+            }
+        });
+        HttpTransport transport = new HttpTransport();
+        for (int i = 0; i < 10; i++) {
+            assertEquals(100, fetch(transport, server.url("/query?i=" + i)).size());
+        }
+        assertEquals(10, server.getRequestCount());
+        assertEquals(10, transport.getRequestCount());
+        assertEquals(1, server.getConnectionCount());
+    }
+
+    @Test
+    public void drainsASmallUnreadBodySoTheConnectionIsReused() throws IOException {
+        final byte[] small = new byte[64 * 1024];
+        final byte[] large = new byte[1024 * 1024];
+        server = new FeedServer(new FeedServer.Handler() {
+            @Override
+            public FeedServer.Reply handle(FeedServer.Request request) {
+                return FeedServer.Reply.ok(request.path.equals("/large") ? large : small);
+            }
+        });
+        HttpTransport transport = new HttpTransport();
+        transport.get(server.url("/small"), null, null).close();
+        transport.get(server.url("/small"), null, null).close();
+        assertEquals(1, server.getConnectionCount());
+        assertEquals(2 * small.length, transport.getBytesReceived());
+
+        // Draining a large remainder costs more than a new connection, so it is dropped
+        transport.get(server.url("/large"), null, null).close();
+        transport.get(server.url("/small"), null, null).close();
+        assertEquals(2, server.getConnectionCount());
+        assertTrue(transport.getBytesReceived() < 3 * small.length + large.length);
+    }
+
+    @Test
+    public void sendsValidators() throws IOException {
+        server = new FeedServer(new FeedServer.Handler() {
+            @Override
+            public FeedServer.Reply handle(FeedServer.Request request) throws IOException {
+                return FeedServer.Reply.status(304).header("ETag", "\"v2\"");
+            }
+        });
+        HttpTransport transport = new HttpTransport();
+        HttpTransport.Response response = transport.get(server.url("/query"), "\"v1\"",
+                "Sat, 22 Sep 2018 13:03:39 GMT");
+        assertEquals(304, response.code);
+        assertEquals("\"v2\"", response.etag);
+        assertNull(response.lastModified);
+        assertEquals(-1, response.body.read());
+        response.close();
+        FeedServer.Request request = server.getRequests().get(0);
+        assertEquals("\"v1\"", request.header("If-None-Match"));
+        assertEquals("Sat, 22 Sep 2018 13:03:39 GMT", request.header("If-Modified-Since"));
+    }
+
+    @Test
+    public void abortsARequestStillWaitingForItsResponse() throws Exception {
+        server = new FeedServer(new FeedServer.Handler() {
+            @Override
+            public FeedServer.Reply handle(FeedServer.Request request) {
+                return FeedServer.Reply.ok(new byte[] {'{', '}'}).delay(60 * 1000);
+            }
+        });
+        final HttpTransport.Call call = new HttpTransport.Call();
+        Thread aborter = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    while (server.getRequestCount() == 0) {
+                        Thread.sleep(10);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                call.abort();
+            }
+        };
+        aborter.start();
+        HttpTransport transport = new HttpTransport();
+        long start = System.nanoTime();
+        try {
+            transport.get(server.url("/slow"), null, null, call);
+            fail("The response arrived");
+        } catch (IOException expected) {
+            // The connection was dropped
+        }
+        // Well before the read timeout of ten seconds
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        aborter.join();
+
+        // A request through a call that was aborted already does not go out at all
+        try {
+            transport.get(server.url("/slow"), null, null, call);
+            fail("The request went out");
+        } catch (InterruptedIOException expected) {
+            // The call was aborted
+        }
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void lendsTheSameBuffersAgain() {
+        HttpTransport transport = new HttpTransport();
+        byte[] first = transport.acquireBuffer();
+        byte[] second = transport.acquireBuffer();
+        assertEquals(HttpTransport.BUFFER_SIZE, first.length);
+        transport.releaseBuffer(second);
+        transport.releaseBuffer(first);
+        assertSame(first, transport.acquireBuffer());
+        assertSame(second, transport.acquireBuffer());
+    }
+
+    @Test
+    public void allocatesLittleBesidesTheBodyPerFetch() throws IOException {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        assumeTrue(allocations.isThreadAllocatedMemorySupported());
+        allocations.setThreadAllocatedMemoryEnabled(true);
+
+        final byte[] json = UsgsFixtures.response(2000, 3);
+        server = new FeedServer(new FeedServer.Handler() {
+            @Override
+            public FeedServer.Reply handle(FeedServer.Request request) throws IOException {
+                return FeedServer.Reply.gzipped(json);
+            }
+        });
+        HttpTransport transport = new HttpTransport();
+        URL url = server.url("/query");
+        for (int i = 0; i < 20; i++) {
+            assertEquals(json.length, read(transport, url));
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long allocated = allocations.getThreadAllocatedBytes(threadId);
+        int fetches = 20;
+        for (int i = 0; i < fetches; i++) {
+            read(transport, url);
+        }
+        allocated = (allocations.getThreadAllocatedBytes(threadId) - allocated) / fetches;
+        assertEquals(1, server.getConnectionCount());
+        // The request and response headers, the gzip state and the stream wrappers; the body
+        // itself only passes through a pooled buffer
+        assertTrue("allocated " + allocated + " bytes per fetch of " + json.length,
+                allocated < 64 * 1024);
+    }
+
+    /**
+     * Fetches the given URL, reads the body through a pooled buffer and returns its length.
+     */
+    private static long read(HttpTransport transport, URL url) throws IOException {
+        HttpTransport.Response response = transport.get(url, null, null);
+        byte[] buffer = transport.acquireBuffer();
+        try {
+            long length = 0;
+            for (int count; (count = response.body.read(buffer)) != -1; ) {
+                length += count;
+            }
+            return length;
+        } finally {
+            transport.releaseBuffer(buffer);
+            response.close();
+        }
+    }
+
+    private static EventStore fetch(HttpTransport transport, URL url) throws IOException {
+        EventStore events = new EventStore();
+        fetchInto(transport, url, events);
+        return events;
+    }
+
+    private static void fetchInto(HttpTransport transport, URL url, EventStore events)
+            throws IOException {
+        HttpTransport.Response response = transport.get(url, null, null);
+        try {
+            assertEquals(200, response.code);
+            EventLoader.readEvents(transport, response, events);
+        } finally {
+            response.close();
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.soonami;
+
+/**
+ * A {@link Clock} that only moves when a test moves it.
+ */
+final class ManualClock implements Clock {
+
+    private long now;
+
+    ManualClock(long now) {
+        this.now = now;
+    }
+
+    @Override
+    public synchronized long now() {
+        return now;
+    }
+
+    synchronized void advance(long millis) {
+        now += millis;
+    }
+}
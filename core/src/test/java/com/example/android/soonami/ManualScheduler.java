@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.soonami;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A single-thread scheduler that runs tasks submitted for right away as usual, but holds
+ * back delayed tasks until a test calls {@link #runScheduled()}, and records their delays.
+ */
+final class ManualScheduler extends ScheduledThreadPoolExecutor {
+
+    /** Delays of the delayed tasks, in milliseconds, oldest first */
+    private final List<Long> delays = new ArrayList<>();
+
+    /** The delayed task scheduled last, and the future that holds it back */
+    private Runnable pending;
+    private ScheduledFuture<?> pendingFuture;
+
+    ManualScheduler() {
+        super(1);
+    }
+
+    @Override
+    public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+        if (delay <= 0) {
+            return super.schedule(command, delay, unit);
+        }
+        synchronized (this) {
+            delays.add(unit.toMillis(delay));
+            pending = command;
+            pendingFuture = super.schedule(command, 365, TimeUnit.DAYS);
+            return pendingFuture;
+        }
+    }
+
+    /**
+     * Runs the delayed task scheduled last now, as if its delay had passed, unless it was
+     * cancelled. Returns whether it was run.
+     */
+    synchronized boolean runScheduled() {
+        if (pendingFuture == null || !pendingFuture.cancel(false)) {
+            return false;
+        }
+        super.schedule(pending, 0, TimeUnit.MILLISECONDS);
+        pendingFuture = null;
+        return true;
+    }
+
+    /**
+     * Returns the delays of the delayed tasks, in milliseconds, oldest first.
+     */
+    synchronized List<Long> getDelays() {
+        return new ArrayList<>(delays);
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.soonami;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Loads responses from a local server through an {@link HttpTransport} that records
+ * {@link PipelineMetrics}, and checks the counters against what the server sent and the
+ * stage times against the delays it was told to make.
+ */
+public class PipelineMetricsTest {
+
+    private static final long MILLIS = 1000 * 1000;
+
+    private static final byte[] FEED = UsgsFixtures.response(1000, 5);
+    private static final byte[] PLAIN = UsgsFixtures.response(200, 6);
+
+    private byte[] gzippedFeed;
+    private volatile long delayMillis;
+    private volatile long stallMillis;
+    private FeedServer server;
+    private PipelineMetrics metrics;
+    private HttpTransport transport;
+
+    @Before
+    public void setUp() throws IOException {
+        gzippedFeed = FeedServer.Reply.gzipped(FEED).body;
+        server = new FeedServer(new FeedServer.Handler() {
+            @Override
+            public FeedServer.Reply handle(FeedServer.Request request) throws IOException {
+                if (request.path.equals("/feed")) {
+                    return FeedServer.Reply.gzipped(FEED);
+                } else if (request.path.equals("/plain")) {
+                    return FeedServer.Reply.ok(PLAIN).delay(delayMillis).stall(stallMillis);
+                } else if (request.path.equals("/unchanged")) {
+                    return FeedServer.Reply.status(304);
+                } else if (request.path.equals("/broken")) {
+                    return FeedServer.Reply.status(500);
+                }
+                return FeedServer.Reply.status(404);
+            }
+        });
+        metrics = new PipelineMetrics();
+        transport = new HttpTransport(metrics);
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void countsBytesEventsAndResponseCodes() throws IOException {
+        assertEquals(1000, load("/feed"));
+        assertEquals(200, load("/plain"));
+        get("/unchanged");
+        get("/missing");
+        get("/broken");
+
+        PipelineMetrics.Snapshot snapshot = metrics.snapshot(true);
+        // Bytes are counted as they came over the wire, so the feed counts gzipped
+        assertEquals(gzippedFeed.length + PLAIN.length, snapshot.bytesRead);
+        assertEquals(server.getBytesSent(), snapshot.bytesRead);
+        assertEquals(1200, snapshot.eventsParsed);
+        assertEquals(2, snapshot.getResponseCount(200));
+        assertEquals(1, snapshot.getResponseCount(304));
+        assertEquals(1, snapshot.getResponseCount(404));
+        assertEquals(1, snapshot.getResponseCount(500));
+        assertEquals(5, snapshot.getResponseCount());
+        assertEquals(5, snapshot.getHistogram(PipelineMetrics.Stage.CONNECT).getCount());
+        assertEquals(2, snapshot.getHistogram(PipelineMetrics.Stage.PARSE).getCount());
+
+        // The reset started the next period from zero
+        snapshot = metrics.snapshot(false);
+        assertEquals(0, snapshot.bytesRead);
+        assertEquals(0, snapshot.eventsParsed);
+        assertEquals(0, snapshot.getResponseCount());
+        assertEquals(0, snapshot.getHistogram(PipelineMetrics.Stage.CONNECT).getCount());
+    }
+
+    @Test
+    public void timesTheWaitForHeadersAndBodyApart() throws IOException {
+        delayMillis = 200;
+        stallMillis = 400;
+        load("/plain");
+
+        PipelineMetrics.Snapshot snapshot = metrics.snapshot(false);
+        long connect = snapshot.getHistogram(PipelineMetrics.Stage.CONNECT).getMax();
+        long transfer = snapshot.getHistogram(PipelineMetrics.Stage.TRANSFER).getMax();
+        long parse = snapshot.getHistogram(PipelineMetrics.Stage.PARSE).getMax();
+        assertTrue("connect " + connect, connect >= 200 * MILLIS && connect < 400 * MILLIS);
+        // The stall starts on the server as the headers leave, a little before the client
+        // starts waiting for the body
+        assertTrue("transfer " + transfer, transfer >= 300 * MILLIS);
+        assertTrue("connect and transfer " + (connect + transfer),
+                connect + transfer >= 550 * MILLIS);
+        // Parsing reads the body as it arrives, so it includes the wait
+        assertTrue("parse " + parse, parse >= transfer);
+    }
+
+    @Test
+    public void disabledMetricsRecordNothing() throws IOException {
+        transport = new HttpTransport(PipelineMetrics.DISABLED);
+        load("/feed");
+        PipelineMetrics.Snapshot snapshot = PipelineMetrics.DISABLED.snapshot(true);
+        assertEquals(0, snapshot.bytesRead);
+        assertEquals(0, snapshot.getResponseCount());
+        assertNull(snapshot.getHistogram(PipelineMetrics.Stage.CONNECT));
+        assertNull(PipelineMetrics.DISABLED.scheduleExport(10, null));
+        assertEquals(gzippedFeed.length, transport.getBytesReceived());
+    }
+
+    @Test
+    public void exportsEachPeriodUntilCancelled() throws Exception {
+        final BlockingQueue<PipelineMetrics.Snapshot> exports = new LinkedBlockingQueue<>();
+        ScheduledFuture<?> export = metrics.scheduleExport(50,
+                new PipelineMetrics.Exporter() {
+                    @Override
+                    public void export(PipelineMetrics.Snapshot snapshot) {
+                        exports.add(snapshot);
+                    }
+                });
+        load("/feed");
+        long eventsParsed = 0;
+        while (eventsParsed < 1000) {
+            PipelineMetrics.Snapshot snapshot = exports.poll(10, TimeUnit.SECONDS);
+            assertNotNull("nothing was exported", snapshot);
+            eventsParsed += snapshot.eventsParsed;
+        }
+        assertEquals(1000, eventsParsed);
+
+        export.cancel(false);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (exportThreadIsAlive()) {
+            assertTrue("the export thread outlived the export", System.nanoTime() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Loads the events of the given path and returns how many there were.
+     */
+    private int load(String path) throws IOException {
+        HttpTransport.Response response = transport.get(server.url(path), null, null);
+        try {
+            EventStore events = new EventStore();
+            EventLoader.readEvents(transport, response, events);
+            return events.size();
+        } finally {
+            response.close();
+        }
+    }
+
+    private void get(String path) throws IOException {
+        transport.get(server.url(path), null, null).close();
+    }
+
+    private static boolean exportThreadIsAlive() {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals("PipelineMetrics") && thread.isAlive()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
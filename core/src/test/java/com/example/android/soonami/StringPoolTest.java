@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.soonami;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that {@link StringPool} gives every String back as it was interned.
+ */
+public class StringPoolTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Test
+    public void returnsTheSameIdForEqualStrings() {
+        StringPool pool = new StringPool();
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(i, pool.intern("us" + i));
+        }
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(i, pool.intern(new String("us" + i)));
+            assertEquals(i, pool.indexOf("us" + i));
+            assertEquals("us" + i, pool.get(i));
+        }
+        assertEquals(10000, pool.size());
+        assertEquals(-1, pool.indexOf("us10000"));
+    }
+
+    @Test
+    public void keepsEveryCharacter() {
+        String[] values = {
+                "", "M 6.1 - Isla \"San Félix\", Chile", "Tōhoku, 日本", "Sea of 𝒳",
+                "\u0000\u007f\u0080߿ࠀ￿", "us\\1000"
+        };
+        StringPool pool = new StringPool();
+        for (String value : values) {
+            pool.intern(value);
+        }
+        for (int id = 0; id < values.length; id++) {
+            assertEquals(values[id], pool.get(id));
+        }
+    }
+
+    @Test
+    public void storesNullAsTheEmptyString() {
+        StringPool pool = new StringPool();
+        assertEquals(0, pool.intern(null));
+        assertEquals(0, pool.intern(""));
+        assertEquals("", pool.get(0));
+    }
+
+    @Test
+    public void replacesUnpairedSurrogatesAsGetBytesDoes() {
+        StringPool pool = new StringPool();
+        String value = "a\ud83db\udc00";
+        pool.intern(value);
+        assertEquals(new String(value.getBytes(UTF_8), UTF_8), pool.get(0));
+    }
+
+    @Test
+    public void startsOverAfterClear() {
+        StringPool pool = new StringPool();
+        pool.intern("a");
+        pool.intern("b");
+        pool.clear();
+        assertEquals(0, pool.size());
+        assertEquals(-1, pool.indexOf("a"));
+        assertEquals(0, pool.intern("b"));
+        assertEquals("b", pool.get(0));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void rejectsUnknownIds() {
+        StringPool pool = new StringPool();
+        pool.intern("a");
+        pool.get(1);
+    }
+}
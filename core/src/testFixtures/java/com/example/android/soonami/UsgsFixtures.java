@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.soonami;
+
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * USGS GeoJSON responses for the tests and the benchmarks, with the fields, nesting and value shapes of a real
+ * response: metadata before the features, "bbox" after them, and every property USGS sends.
+ *
+ * Some features carry the awkward cases a real feed has now and then: escaped and non-ASCII
+ * titles (including characters outside the Basic Multilingual Plane), a null magnitude, a
+ * null geometry and exponents in coordinates. Payloads are built from a seed, so a failing
+ * test sees the same bytes on every run.
+ */
+final class UsgsFixtures {
+
+    /** Time of the newest generated earthquake */
+    static final long NEWEST_TIME = 1537621419410L;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String[] PLACES = {
+            "Kermadec Islands, New Zealand", "Fiji region", "south of Alaska",
+            "near the east coast of Honshu, Japan", "offshore Bio-Bio, Chile",
+            "Papua New Guinea", "Sulawesi, Indonesia", "Oaxaca, Mexico",
+            // Escapes, accents, CJK and a character that takes four bytes in UTF-8
+            "Isla \\\"San Félix\\\", Chile", "Tōhoku, 日本", "Ryukyu \\\\ Taiwan",
+            "\\u00cdsafj\\u00f6r\\u00f0ur, Iceland", "Sea of 𝒳 (test region)"
+    };
+
+    private UsgsFixtures() {
+    }
+
+    /**
+     * Returns a response with the given number of features, newest first.
+     */
+    static byte[] response(int eventCount, long seed) {
+        return responseString(eventCount, seed).getBytes(UTF_8);
+    }
+
+    /**
+     * Returns a response with the given number of features, newest first, as a String.
+     */
+    static String responseString(int eventCount, long seed) {
+        return responseString(Integer.MAX_VALUE, eventCount, seed);
+    }
+
+    /**
+     * Returns a response with as many features as it takes to reach the given number of
+     * bytes, newest first.
+     */
+    static byte[] responseOfSize(int targetBytes, long seed) {
+        return responseString(targetBytes, Integer.MAX_VALUE, seed).getBytes(UTF_8);
+    }
+
+    private static String responseString(int targetBytes, int eventCount, long seed) {
+        Random random = new Random(seed);
+        // A feature takes about 1 KB
+        StringBuilder features = new StringBuilder((int) Math.min(targetBytes, eventCount * 1100L));
+        long time = NEWEST_TIME;
+        int count = 0;
+        for (; count < eventCount && features.length() < targetBytes; count++) {
+            if (count > 0) {
+                features.append(",\n");
+            }
+            appendFeature(features, "us" + (1000 + count) + "abcd", time, random);
+            time -= 60000L + random.nextInt(3600000);
+        }
+        StringBuilder json = new StringBuilder(features.length() + 1024);
+        json.append("{\"type\":\"FeatureCollection\",\"metadata\":{\"generated\":1537621419000,")
+                .append("\"url\":\"https://earthquake.usgs.gov/fdsnws/event/1/query?format=geojson\",")
+                .append("\"title\":\"USGS Earthquakes\",\"status\":200,\"api\":\"1.5.8\",\"count\":")
+                .append(count).append("},\n\"features\":[").append(features)
+                .append("],\"bbox\":[-179.9,-60.1,1.1,179.9,60.2,650.3]}\n");
+        return json.toString();
+    }
+
+    /**
+     * Appends one feature with the given id and time.
+     */
+    static void appendFeature(StringBuilder json, String id, long time, Random random) {
+        double magnitude = 2.5 + random.nextInt(60) / 10.0;
+        String place = (1 + random.nextInt(300)) + "km SSW of "
+                + PLACES[random.nextInt(PLACES.length)];
+        int odd = random.nextInt(50);
+        json.append("{\"type\":\"Feature\",\"properties\":{")
+                .append("\"mag\":").append(odd == 0 ? "null" : String.valueOf(magnitude))
+                .append(",\"place\":\"").append(place)
+                .append("\",\"time\":").append(time)
+                .append(",\"updated\":").append(time + 600000)
+                .append(",\"tz\":-720,\"url\":\"https://earthquake.usgs.gov/earthquakes/eventpage/")
+                .append(id).append("\",\"felt\":null,\"cdi\":null,\"mmi\":4.5")
+                .append(",\"alert\":\"green\",\"status\":\"reviewed\",\"tsunami\":")
+                .append(random.nextInt(10) == 0 ? 1 : 0)
+                .append(",\"sig\":").append(100 + random.nextInt(900))
+                .append(",\"net\":\"us\",\"ids\":\",").append(id).append(",\"")
+                .append(",\"types\":\",geoserve,origin,phase-data,\",\"nst\":null,\"dmin\":")
+                .append(random.nextInt(1000) / 100.0)
+                .append(",\"rms\":0.97,\"gap\":15,\"magType\":\"mww\",\"type\":\"earthquake\"")
+                .append(",\"title\":\"M ").append(String.format(Locale.US, "%.1f", magnitude))
+                .append(" - ").append(place).append("\"},");
+        if (odd == 1) {
+            json.append("\"geometry\":null,");
+        } else {
+            json.append("\"geometry\":{\"type\":\"Point\",\"coordinates\":[")
+                    .append(random.nextInt(3600000) / 10000.0 - 180).append(',')
+                    .append(random.nextInt(1800000) / 10000.0 - 90).append(',')
+                    .append(odd == 2 ? "1.5e1" : String.valueOf(random.nextInt(7000) / 10.0))
+                    .append("]},");
+        }
+        json.append("\"id\":\"").append(id).append("\"}");
+    }
+}